@@ -15,15 +15,28 @@
 package com.github.legoatoom.connectiblechains;
 
 
+import com.github.legoatoom.connectiblechains.chain.ChainColliderManager;
+import com.github.legoatoom.connectiblechains.chain.ChainCollisionIndex;
+import com.github.legoatoom.connectiblechains.chain.ChainGraph;
+import com.github.legoatoom.connectiblechains.chain.ChainLink;
 import com.github.legoatoom.connectiblechains.config.ModConfig;
+import com.github.legoatoom.connectiblechains.entity.ChainKnotEntity;
+import com.github.legoatoom.connectiblechains.entity.ChainKnotIndex;
 import com.github.legoatoom.connectiblechains.entity.ModEntityTypes;
+import com.github.legoatoom.connectiblechains.entity.PendingChainLinks;
 import com.github.legoatoom.connectiblechains.item.ChainItemInfo;
+import com.github.legoatoom.connectiblechains.util.NetworkingPackets;
 import me.shedaniel.autoconfig.AutoConfig;
 import me.shedaniel.autoconfig.ConfigHolder;
 import me.shedaniel.autoconfig.serializer.Toml4jConfigSerializer;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerChunkEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerEntityEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerWorldEvents;
 import net.fabricmc.fabric.api.event.player.UseBlockCallback;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -64,8 +77,26 @@ public class ConnectibleChains implements ModInitializer {
 
         UseBlockCallback.EVENT.register(ChainItemInfo::chainUseEvent);
 
+        // Unloading also happens when an entity is removed
+        ServerEntityEvents.ENTITY_LOAD.register(ChainKnotIndex::onEntityLoad);
+        ServerEntityEvents.ENTITY_UNLOAD.register(ChainKnotIndex::onEntityUnload);
+        // Must run after the knot index was updated
+        ServerEntityEvents.ENTITY_LOAD.register(PendingChainLinks::onEntityLoad);
+        ServerEntityEvents.ENTITY_UNLOAD.register(PendingChainLinks::onEntityUnload);
+        ServerEntityEvents.ENTITY_UNLOAD.register(ChainKnotEntity::wakeLinkedKnots);
+        ServerEntityEvents.ENTITY_UNLOAD.register(ChainGraph::onEntityUnload);
+        ServerEntityEvents.ENTITY_UNLOAD.register(ChainCollisionIndex::onEntityUnload);
+
+        ServerTickEvents.END_WORLD_TICK.register(ChainColliderManager::tick);
+        ServerTickEvents.END_WORLD_TICK.register(PendingChainLinks::tick);
+        ServerChunkEvents.CHUNK_LOAD.register(PendingChainLinks::onChunkLoad);
+        ServerChunkEvents.CHUNK_UNLOAD.register(PendingChainLinks::onChunkUnload);
+        ServerWorldEvents.UNLOAD.register(ChainColliderManager::onWorldUnload);
+
         // Need this event on dedicated and internal server because of 'open to lan'.
         ServerPlayConnectionEvents.INIT.register((handler, server) -> fileConfig.syncToClient(handler.getPlayer()));
+
+        ServerPlayNetworking.registerGlobalReceiver(NetworkingPackets.C2S_CHAIN_INTERACT_PACKET, ChainLink::receiveInteractPacket);
     }
 
 }
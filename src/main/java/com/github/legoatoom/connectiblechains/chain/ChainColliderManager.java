@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.chain;
+
+import com.github.legoatoom.connectiblechains.ConnectibleChains;
+import com.github.legoatoom.connectiblechains.util.Helper;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.entity.mob.MobEntity;
+import net.minecraft.predicate.entity.EntityPredicates;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.Box;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Spawns the {@link com.github.legoatoom.connectiblechains.entity.ChainCollisionEntity collision entities} of links.
+ * <p>
+ * Links that need colliders are queued and the queue is drained under a per-tick budget, links nearest to a player first.
+ * This spreads the work of a chunk with many links over several ticks instead of spawning everything in the tick it loads.
+ * <p>
+ * When a collider activation range is configured, colliders only exist while a player or mob is near the link,
+ * so idle chains don't cost entity ticks and tracking.
+ * Every link is checked once per {@link #CHECK_INTERVAL}, spread over the ticks of the interval.
+ * The colliders are removed when nothing was near for {@link #DEACTIVATION_DELAY} ticks.
+ * <p>
+ * Only the server uses this, all worlds are ticked on the server thread.
+ *
+ * @see com.github.legoatoom.connectiblechains.config.ModConfig#getColliderActivationRange()
+ * @see com.github.legoatoom.connectiblechains.config.ModConfig#getColliderSpawnBudget()
+ */
+public final class ChainColliderManager {
+    /**
+     * The ticks between two checks of the same link, the spawn queue is also sorted again after this many ticks.
+     */
+    private static final int CHECK_INTERVAL = 20;
+    /**
+     * The ticks after the last nearby entity was seen until the colliders are removed.
+     */
+    private static final int DEACTIVATION_DELAY = 200;
+
+    private static final Reference2ObjectOpenHashMap<ServerWorld, ChainColliderManager> MANAGERS = new Reference2ObjectOpenHashMap<>();
+
+    private final ObjectArrayList<ChainLink> links = new ObjectArrayList<>();
+    private int cursor = 0;
+    /**
+     * Links that wait for their colliders, the nearest first after sorting.
+     */
+    private final ObjectArrayList<ChainLink> pending = new ObjectArrayList<>();
+    private boolean pendingSorted = true;
+    private int ticksSinceSort = 0;
+
+    private ChainColliderManager() {
+    }
+
+    /**
+     * Starts watching a link, its colliders are queued right away when something is already near.
+     */
+    static void track(ServerWorld world, ChainLink link) {
+        ChainColliderManager manager = MANAGERS.computeIfAbsent(world, key -> new ChainColliderManager());
+        manager.links.add(link);
+        manager.check(world, link, ConnectibleChains.runtimeConfig.getColliderActivationRange());
+    }
+
+    /**
+     * Checks a share of the links and spawns queued colliders, used as end world tick callback.
+     */
+    public static void tick(ServerWorld world) {
+        ChainColliderManager manager = MANAGERS.get(world);
+        if (manager == null) return;
+        manager.tickLinks(world);
+        manager.spawnPending(world);
+    }
+
+    /**
+     * Forgets the links of a world, used as world unload callback.
+     */
+    public static void onWorldUnload(MinecraftServer server, ServerWorld world) {
+        MANAGERS.remove(world);
+    }
+
+    private void tickLinks(ServerWorld world) {
+        int range = ConnectibleChains.runtimeConfig.getColliderActivationRange();
+        int count = (links.size() + CHECK_INTERVAL - 1) / CHECK_INTERVAL;
+        for (int i = 0; i < count && !links.isEmpty(); i++) {
+            if (cursor >= links.size()) cursor = 0;
+            ChainLink link = links.get(cursor);
+            if (link.isDead() || link.needsBeDestroyed()) {
+                // Swap remove, the moved link is checked next
+                links.set(cursor, links.get(links.size() - 1));
+                links.remove(links.size() - 1);
+                continue;
+            }
+            check(world, link, range);
+            cursor++;
+        }
+    }
+
+    private void check(ServerWorld world, ChainLink link, int range) {
+        long time = world.getTime();
+        if (range <= 0 || isAnyoneNear(world, link, range)) {
+            link.lastNearbyTime = time;
+            if (!link.hasColliders() && !link.colliderPending) {
+                link.colliderPending = true;
+                pending.add(link);
+                pendingSorted = false;
+            }
+        } else if (time - link.lastNearbyTime > DEACTIVATION_DELAY) {
+            // A queued entry is skipped when the flag is cleared
+            link.colliderPending = false;
+            link.destroyCollision();
+        }
+    }
+
+    /**
+     * Spawns the colliders of queued links until the budget of this tick is used up.
+     * A link is never split, so the budget can be exceeded by the last link.
+     */
+    private void spawnPending(ServerWorld world) {
+        if (pending.isEmpty()) return;
+        if (!pendingSorted || ++ticksSinceSort >= CHECK_INTERVAL) sortPending(world);
+
+        int budget = ConnectibleChains.runtimeConfig.getColliderSpawnBudget();
+        int spawned = 0;
+        int i = 0;
+        while (i < pending.size() && (budget <= 0 || spawned < budget)) {
+            ChainLink link = pending.get(i++);
+            if (!link.colliderPending) continue;
+            link.colliderPending = false;
+            if (link.isDead() || link.needsBeDestroyed()) continue;
+            spawned += link.createColliders(false);
+        }
+        pending.removeElements(0, i);
+    }
+
+    private void sortPending(ServerWorld world) {
+        List<ServerPlayerEntity> players = world.getPlayers();
+        for (int i = 0; i < pending.size(); i++) {
+            ChainLink link = pending.get(i);
+            Vec3d middle = Helper.middleOf(link.primary.getPos(), link.secondary.getPos());
+            double nearest = Double.MAX_VALUE;
+            for (int j = 0; j < players.size(); j++) {
+                nearest = Math.min(nearest, players.get(j).squaredDistanceTo(middle));
+            }
+            link.colliderPriority = nearest;
+        }
+        pending.sort(Comparator.comparingDouble(link -> link.colliderPriority));
+        pendingSorted = true;
+        ticksSinceSort = 0;
+    }
+
+    private static boolean isAnyoneNear(ServerWorld world, ChainLink link, int range) {
+        Box area = new Box(link.primary.getPos(), link.secondary.getPos()).expand(range);
+        List<ServerPlayerEntity> players = world.getPlayers();
+        for (int i = 0; i < players.size(); i++) {
+            ServerPlayerEntity player = players.get(i);
+            if (!player.isSpectator() && area.contains(player.getPos())) return true;
+        }
+        return !world.getEntitiesByClass(MobEntity.class, area, EntityPredicates.EXCEPT_SPECTATOR).isEmpty();
+    }
+}
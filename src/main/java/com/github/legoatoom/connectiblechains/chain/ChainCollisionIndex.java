@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.chain;
+
+import com.github.legoatoom.connectiblechains.entity.ChainKnotEntity;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.Box;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.shape.VoxelShape;
+import net.minecraft.util.shape.VoxelShapes;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The collision boxes of links in {@link com.github.legoatoom.connectiblechains.config.ModConfig.CollisionMode#VIRTUAL virtual}
+ * collision mode, indexed by the chunks they overlap.
+ * They replace the {@link com.github.legoatoom.connectiblechains.entity.ChainCollisionEntity collision entities}:
+ * entity movement collides with them and players attack or use them through {@link #raycast}.
+ * <p>
+ * Every world has its own index, see {@link Holder}. Boxes are added when a link is created and removed when it is destroyed.
+ * Links can also disappear without being destroyed when their knot is unloaded, their boxes are removed then, see {@link #onEntityUnload}.
+ *
+ * @see com.github.legoatoom.connectiblechains.mixin.entity.EntityMixin
+ */
+public final class ChainCollisionIndex {
+    private final Long2ObjectOpenHashMap<ObjectArrayList<Segment>> chunks = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * @return The index of {@code world}
+     */
+    public static ChainCollisionIndex of(World world) {
+        return ((Holder) world).connectiblechains$getCollisionIndex();
+    }
+
+    /**
+     * Removes the boxes of the links of a knot that was unloaded or removed, used as entity unload callback.
+     * The links may not be destroyed, for example when the chunk of the knot is unloaded.
+     */
+    public static void onEntityUnload(Entity entity, World world) {
+        if (!(entity instanceof ChainKnotEntity knot)) return;
+        for (ChainLink link : knot.getLinks()) {
+            link.destroyVirtualCollision();
+        }
+    }
+
+    void add(ChainLink link, Box box) {
+        Segment segment = new Segment(link, box, VoxelShapes.cuboid(box));
+        int maxX = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.maxX));
+        int maxZ = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.maxZ));
+        for (int x = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.minX)); x <= maxX; x++) {
+            for (int z = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.minZ)); z <= maxZ; z++) {
+                chunks.computeIfAbsent(ChunkPos.toLong(x, z), key -> new ObjectArrayList<>(4)).add(segment);
+            }
+        }
+    }
+
+    void remove(ChainLink link, Box box) {
+        int maxX = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.maxX));
+        int maxZ = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.maxZ));
+        for (int x = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.minX)); x <= maxX; x++) {
+            for (int z = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.minZ)); z <= maxZ; z++) {
+                long key = ChunkPos.toLong(x, z);
+                ObjectArrayList<Segment> segments = chunks.get(key);
+                if (segments == null) continue;
+                segments.removeIf(segment -> segment.link == link);
+                if (segments.isEmpty()) chunks.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Adds the shapes of all boxes that intersect {@code area} to the entity collisions of {@code entity}.
+     *
+     * @param entity     The moving entity
+     * @param area       The bounding box of the entity stretched by its movement
+     * @param collisions The collisions with other entities, it is not modified
+     * @return {@code collisions} or a new list that also contains the chain collisions
+     */
+    public List<VoxelShape> addCollisions(Entity entity, Box area, List<VoxelShape> collisions) {
+        if (chunks.isEmpty() || entity.isSpectator()) return collisions;
+
+        List<VoxelShape> result = collisions;
+        int maxX = ChunkSectionPos.getSectionCoord(MathHelper.floor(area.maxX));
+        int maxZ = ChunkSectionPos.getSectionCoord(MathHelper.floor(area.maxZ));
+        for (int x = ChunkSectionPos.getSectionCoord(MathHelper.floor(area.minX)); x <= maxX; x++) {
+            for (int z = ChunkSectionPos.getSectionCoord(MathHelper.floor(area.minZ)); z <= maxZ; z++) {
+                ObjectArrayList<Segment> segments = chunks.get(ChunkPos.toLong(x, z));
+                if (segments == null) continue;
+                for (int i = 0; i < segments.size(); i++) {
+                    Segment segment = segments.get(i);
+                    if (!segment.box.intersects(area)) continue;
+                    if (result == collisions) result = new ArrayList<>(collisions);
+                    result.add(segment.shape);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the box that is hit first by the line from {@code start} to {@code end}.
+     *
+     * @param start The start of the ray, usually the eyes of a player
+     * @param end   The end of the ray
+     * @return The hit or null when no box is hit
+     */
+    @Nullable
+    public Hit raycast(Vec3d start, Vec3d end) {
+        if (chunks.isEmpty()) return null;
+
+        Hit closest = null;
+        double closestDistance = Double.MAX_VALUE;
+        int maxX = ChunkSectionPos.getSectionCoord(MathHelper.floor(Math.max(start.x, end.x)));
+        int maxZ = ChunkSectionPos.getSectionCoord(MathHelper.floor(Math.max(start.z, end.z)));
+        for (int x = ChunkSectionPos.getSectionCoord(MathHelper.floor(Math.min(start.x, end.x))); x <= maxX; x++) {
+            for (int z = ChunkSectionPos.getSectionCoord(MathHelper.floor(Math.min(start.z, end.z))); z <= maxZ; z++) {
+                ObjectArrayList<Segment> segments = chunks.get(ChunkPos.toLong(x, z));
+                if (segments == null) continue;
+                for (int i = 0; i < segments.size(); i++) {
+                    Segment segment = segments.get(i);
+                    Optional<Vec3d> hit = segment.box.raycast(start, end);
+                    if (hit.isEmpty()) continue;
+                    double distance = start.squaredDistanceTo(hit.get());
+                    if (distance < closestDistance) {
+                        closestDistance = distance;
+                        closest = new Hit(segment.link, hit.get());
+                    }
+                }
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * One collision box of a link.
+     */
+    private record Segment(ChainLink link, Box box, VoxelShape shape) {
+    }
+
+    /**
+     * The result of {@link #raycast}.
+     *
+     * @param link The link that owns the box that was hit
+     * @param pos  Where the box was hit
+     */
+    public record Hit(ChainLink link, Vec3d pos) {
+    }
+
+    /**
+     * Implemented by every {@link World}.
+     */
+    public interface Holder {
+        ChainCollisionIndex connectiblechains$getCollisionIndex();
+    }
+}
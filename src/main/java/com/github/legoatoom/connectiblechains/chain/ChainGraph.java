@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.chain;
+
+import com.github.legoatoom.connectiblechains.entity.ChainKnotEntity;
+import com.github.legoatoom.connectiblechains.util.Helper;
+import it.unimi.dsi.fastutil.longs.*;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
+import net.minecraft.entity.Entity;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.*;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The loaded links between knots of a server world as a graph.
+ * Knots are the nodes, stored by the position of the block they are attached to, and links are the edges.
+ * The links are also indexed by the chunks their bounds overlap.
+ * <p>
+ * This answers world-wide questions such as how many links exist, which links cross a chunk
+ * or which knots form a network without iterating entities.
+ * Links to players are not part of the graph.
+ * <p>
+ * Every server world has its own graph, see {@link Holder}. Links are added in {@link ChainLink#create}
+ * and removed when they are destroyed or one of their knots is unloaded.
+ *
+ * @see com.github.legoatoom.connectiblechains.mixin.server.world.ServerWorldMixin
+ */
+public final class ChainGraph {
+    private final Reference2ObjectOpenHashMap<ChainLink, Edge> edges = new Reference2ObjectOpenHashMap<>();
+    private final Long2ObjectOpenHashMap<ObjectArrayList<Edge>> knots = new Long2ObjectOpenHashMap<>();
+    private final Long2ObjectOpenHashMap<ObjectArrayList<Edge>> chunks = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * @return The graph of {@code world}
+     */
+    public static ChainGraph of(ServerWorld world) {
+        return ((Holder) world).connectiblechains$getChainGraph();
+    }
+
+    /**
+     * Removes the links of a knot that was unloaded or removed, used as server entity unload callback.
+     */
+    public static void onEntityUnload(Entity entity, ServerWorld world) {
+        if (!(entity instanceof ChainKnotEntity knot)) return;
+        ChainGraph graph = of(world);
+        for (ChainLink link : knot.getLinks()) {
+            graph.remove(link);
+        }
+    }
+
+    void add(ChainLink link) {
+        if (!(link.secondary instanceof ChainKnotEntity secondary) || edges.containsKey(link)) return;
+
+        BlockPos from = link.primary.getDecorationBlockPos();
+        BlockPos to = secondary.getDecorationBlockPos();
+        Edge edge = new Edge(link, from.asLong(), to.asLong(), getBounds(link.primary, secondary, from, to));
+        edges.put(link, edge);
+        knots.computeIfAbsent(edge.from, key -> new ObjectArrayList<>(2)).add(edge);
+        knots.computeIfAbsent(edge.to, key -> new ObjectArrayList<>(2)).add(edge);
+
+        int maxX = ChunkSectionPos.getSectionCoord(MathHelper.floor(edge.box.maxX));
+        int maxZ = ChunkSectionPos.getSectionCoord(MathHelper.floor(edge.box.maxZ));
+        for (int x = ChunkSectionPos.getSectionCoord(MathHelper.floor(edge.box.minX)); x <= maxX; x++) {
+            for (int z = ChunkSectionPos.getSectionCoord(MathHelper.floor(edge.box.minZ)); z <= maxZ; z++) {
+                chunks.computeIfAbsent(ChunkPos.toLong(x, z), key -> new ObjectArrayList<>(4)).add(edge);
+            }
+        }
+    }
+
+    /**
+     * The bounds of both knot blocks, extended down to the lowest point of the chain, see {@link Helper#drip2Min}.
+     * The sag uses the hang amount at the time the link is added.
+     */
+    private static Box getBounds(ChainKnotEntity primary, ChainKnotEntity secondary, BlockPos from, BlockPos to) {
+        Box box = new Box(from).union(new Box(to));
+        Vec3d start = primary.getPos(), end = secondary.getPos();
+        double distance = start.distanceTo(end);
+        // drip2Min is not defined for a chain without length
+        if (distance < 1e-6) return box;
+        double lowestY = start.y + Math.min(0, Helper.drip2Min(distance, end.y - start.y));
+        return box.withMinY(Math.min(box.minY, MathHelper.floor(lowestY)));
+    }
+
+    void remove(ChainLink link) {
+        Edge edge = edges.remove(link);
+        if (edge == null) return;
+
+        removeFrom(knots, edge.from, edge);
+        removeFrom(knots, edge.to, edge);
+
+        int maxX = ChunkSectionPos.getSectionCoord(MathHelper.floor(edge.box.maxX));
+        int maxZ = ChunkSectionPos.getSectionCoord(MathHelper.floor(edge.box.maxZ));
+        for (int x = ChunkSectionPos.getSectionCoord(MathHelper.floor(edge.box.minX)); x <= maxX; x++) {
+            for (int z = ChunkSectionPos.getSectionCoord(MathHelper.floor(edge.box.minZ)); z <= maxZ; z++) {
+                removeFrom(chunks, ChunkPos.toLong(x, z), edge);
+            }
+        }
+    }
+
+    /**
+     * Moves the links of a knot whose position has changed, for example through a teleport command.
+     */
+    public void update(ChainKnotEntity knot) {
+        for (ChainLink link : knot.getLinks()) {
+            if (!edges.containsKey(link)) continue;
+            remove(link);
+            add(link);
+        }
+    }
+
+    private static void removeFrom(Long2ObjectOpenHashMap<ObjectArrayList<Edge>> map, long key, Edge edge) {
+        ObjectArrayList<Edge> list = map.get(key);
+        if (list == null) return;
+        list.remove(edge);
+        if (list.isEmpty()) map.remove(key);
+    }
+
+    /**
+     * @return The number of links in the graph
+     */
+    public int getLinkCount() {
+        return edges.size();
+    }
+
+    /**
+     * @return The number of knots with at least one link to another knot
+     */
+    public int getKnotCount() {
+        return knots.size();
+    }
+
+    /**
+     * @param knotPos The position of the block that the knot is attached to
+     * @return The links of the knot at {@code knotPos}
+     */
+    public List<ChainLink> getLinks(BlockPos knotPos) {
+        return toLinks(knots.get(knotPos.asLong()));
+    }
+
+    /**
+     * @return The links whose bounds overlap the chunk
+     */
+    public List<ChainLink> getLinksInChunk(ChunkPos chunkPos) {
+        return toLinks(chunks.get(chunkPos.toLong()));
+    }
+
+    /**
+     * @return The links whose bounds, including the part of the chain that hangs below the knots, intersect {@code box},
+     * each link is contained once
+     */
+    public List<ChainLink> getLinksInBox(Box box) {
+        List<ChainLink> result = new ObjectArrayList<>();
+        if (edges.isEmpty()) return result;
+
+        Set<ChainLink> seen = new ReferenceOpenHashSet<>();
+        int maxX = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.maxX));
+        int maxZ = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.maxZ));
+        for (int x = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.minX)); x <= maxX; x++) {
+            for (int z = ChunkSectionPos.getSectionCoord(MathHelper.floor(box.minZ)); z <= maxZ; z++) {
+                ObjectArrayList<Edge> list = chunks.get(ChunkPos.toLong(x, z));
+                if (list == null) continue;
+                for (int i = 0; i < list.size(); i++) {
+                    Edge edge = list.get(i);
+                    if (edge.box.intersects(box) && seen.add(edge.link)) result.add(edge.link);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds all knots that are connected to the knot at {@code knotPos} through any number of links.
+     *
+     * @param knotPos The position of the block that the knot is attached to
+     * @return The positions of the knots in the network, as {@link BlockPos#asLong() longs}, empty when the knot has no links
+     */
+    public LongSet getComponent(BlockPos knotPos) {
+        long start = knotPos.asLong();
+        LongOpenHashSet visited = new LongOpenHashSet();
+        if (knots.containsKey(start)) collectComponent(start, visited);
+        return visited;
+    }
+
+    /**
+     * Splits all knots into networks of knots that are connected through any number of links.
+     *
+     * @return The positions of the knots in each network, as {@link BlockPos#asLong() longs}
+     */
+    public List<LongSet> getConnectedComponents() {
+        List<LongSet> components = new ObjectArrayList<>();
+        LongOpenHashSet visited = new LongOpenHashSet(knots.size());
+        for (long pos : knots.keySet()) {
+            if (visited.contains(pos)) continue;
+            LongOpenHashSet component = new LongOpenHashSet();
+            collectComponent(pos, component);
+            visited.addAll(component);
+            components.add(component);
+        }
+        return components;
+    }
+
+    /**
+     * Breadth first search from {@code start}, adds every reached knot to {@code component}.
+     */
+    private void collectComponent(long start, LongSet component) {
+        LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+        component.add(start);
+        queue.enqueue(start);
+        while (!queue.isEmpty()) {
+            long pos = queue.dequeueLong();
+            ObjectArrayList<Edge> list = knots.get(pos);
+            if (list == null) continue;
+            for (int i = 0; i < list.size(); i++) {
+                Edge edge = list.get(i);
+                long other = edge.from == pos ? edge.to : edge.from;
+                if (component.add(other)) queue.enqueue(other);
+            }
+        }
+    }
+
+    private static List<ChainLink> toLinks(ObjectArrayList<Edge> list) {
+        if (list == null) return List.of();
+        List<ChainLink> result = new ObjectArrayList<>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            result.add(list.get(i).link);
+        }
+        return result;
+    }
+
+    /**
+     * A link between the knots at {@code from} and {@code to}.
+     *
+     * @param box The bounds of both knot blocks and the hanging chain between them, used for the chunk and box queries
+     */
+    private record Edge(ChainLink link, long from, long to, Box box) {
+    }
+
+    /**
+     * Implemented by every {@link ServerWorld}.
+     */
+    public interface Holder {
+        ChainGraph connectiblechains$getChainGraph();
+    }
+}
@@ -15,14 +15,23 @@
 package com.github.legoatoom.connectiblechains.chain;
 
 import com.github.legoatoom.connectiblechains.ConnectibleChains;
+import com.github.legoatoom.connectiblechains.client.render.entity.LinkRenderData;
+import com.github.legoatoom.connectiblechains.config.ModConfig;
 import com.github.legoatoom.connectiblechains.entity.ChainCollisionEntity;
 import com.github.legoatoom.connectiblechains.entity.ChainKnotEntity;
+import com.github.legoatoom.connectiblechains.entity.ChainLinkEntity;
 import com.github.legoatoom.connectiblechains.entity.ModEntityTypes;
+import com.github.legoatoom.connectiblechains.util.CatenaryCurve;
 import com.github.legoatoom.connectiblechains.util.Helper;
 import com.github.legoatoom.connectiblechains.util.NetworkingPackets;
 import io.netty.buffer.Unpooled;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectList;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.networking.v1.PacketSender;
 import net.fabricmc.fabric.api.networking.v1.PlayerLookup;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import net.minecraft.entity.Entity;
@@ -32,8 +41,14 @@ import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.registry.Registries;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayNetworkHandler;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
+import net.minecraft.sound.SoundCategory;
+import net.minecraft.sound.SoundEvents;
+import net.minecraft.util.Hand;
+import net.minecraft.util.math.Box;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.GameRules;
@@ -42,6 +57,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
@@ -77,14 +93,37 @@ public class ChainLink {
      * Holds the entity ids of associated {@link ChainCollisionEntity collision entities}.
      */
     private final IntList collisionStorage = new IntArrayList(16);
+    /**
+     * Holds the collision boxes of this link in {@link ModConfig.CollisionMode#VIRTUAL virtual} collision mode,
+     * they are also stored in the {@link ChainCollisionIndex} of the world.
+     */
+    private final ObjectList<Box> collisionBoxes = new ObjectArrayList<>(0);
     /**
      * Indicates that no sound should be played when the link is destroyed.
      */
     public boolean removeSilently = false;
+    /**
+     * The world time when {@link ChainColliderManager} last saw an entity near this link.
+     */
+    long lastNearbyTime;
+    /**
+     * Whether this link is waiting in the spawn queue of the {@link ChainColliderManager}.
+     */
+    boolean colliderPending;
+    /**
+     * The squared distance to the nearest player when the spawn queue was last sorted.
+     */
+    double colliderPriority;
     /**
      * Whether the link exists and is active
      */
     private boolean alive = true;
+    /**
+     * Client side render data such as a persistent vertex buffer, created when the link is first rendered.
+     */
+    @Environment(EnvType.CLIENT)
+    @Nullable
+    private LinkRenderData renderData;
 
     private ChainLink(@NotNull ChainKnotEntity primary, @NotNull Entity secondary, @NotNull Item sourceItem) {
         if (primary.equals(secondary))
@@ -115,9 +154,12 @@ public class ChainLink {
         if (secondary instanceof ChainKnotEntity secondaryKnot) {
             secondaryKnot.addLink(link);
             link.createCollision();
+        } else if (secondary instanceof PlayerEntity player) {
+            HeldChainLinks.of(player).add(link);
         }
-        if (!primary.getWorld().isClient()) {
-            link.sendAttachChainPacket(primary.getWorld());
+        if (primary.getWorld() instanceof ServerWorld serverWorld) {
+            ChainGraph.of(serverWorld).add(link);
+            link.sendAttachChainPacket(serverWorld);
         }
         return link;
     }
@@ -126,10 +168,30 @@ public class ChainLink {
      * Create a collision between this and an entity.
      * It spawns multiple {@link ChainCollisionEntity ChainCollisionEntities} that are equal distance from each other.
      * Position is the same no matter what if the connection is from A -> B or A <- B.
+     * <p>
+     * In {@link ModConfig.CollisionMode#VIRTUAL virtual} collision mode the same boxes are added to the
+     * {@link ChainCollisionIndex} instead, on both the server and the client, because the client moves its player itself.
+     * <p>
+     * The entities are spawned later by the {@link ChainColliderManager}, under a per-tick budget
+     * and, when a collider activation range is configured, only while a player or mob is near the link.
      */
     private void createCollision() {
-        if (!collisionStorage.isEmpty()) return;
-        if (primary.getWorld().isClient) return;
+        boolean virtual = ConnectibleChains.runtimeConfig.getCollisionMode() == ModConfig.CollisionMode.VIRTUAL;
+        if (virtual) {
+            createColliders(true);
+        } else if (primary.getWorld() instanceof ServerWorld serverWorld) {
+            ChainColliderManager.track(serverWorld, this);
+        }
+    }
+
+    /**
+     * Spawns the colliders or adds the collision boxes, does nothing when they already exist.
+     *
+     * @param virtual Whether to add collision boxes to the {@link ChainCollisionIndex} instead of spawning entities
+     * @return The number of colliders that were created
+     */
+    int createColliders(boolean virtual) {
+        if (!collisionStorage.isEmpty() || !collisionBoxes.isEmpty()) return 0;
 
         double distance = primary.distanceTo(secondary);
         // step = spacing * √(width^2 + width^2) / distance
@@ -138,17 +200,32 @@ public class ChainLink {
         // reserve space for the center collider
         double centerHoldout = ModEntityTypes.CHAIN_COLLISION.getWidth() / distance;
 
+        // The colliders are placed from both ends, each direction has its own curve
+        Vec3d startPos = primary.getPos().add(primary.getLeashOffset(0));
+        Vec3d endPos = secondary.getPos().add(secondary.getLeashOffset(0));
+        Vec3d offset = Helper.getChainOffset(startPos, endPos);
+        startPos = startPos.add(offset.getX(), 0, offset.getZ());
+        endPos = endPos.add(-offset.getX(), 0, -offset.getZ());
+        double chainLength = startPos.distanceTo(endPos);
+        CatenaryCurve forward = CatenaryCurve.of(chainLength, endPos.getY() - startPos.getY());
+        CatenaryCurve reverse = CatenaryCurve.of(chainLength, startPos.getY() - endPos.getY());
+
         while (v < 0.5 - centerHoldout) {
-            Entity collider1 = spawnCollision(false, primary, secondary, v);
-            if (collider1 != null) collisionStorage.add(collider1.getId());
-            Entity collider2 = spawnCollision(true, primary, secondary, v);
-            if (collider2 != null) collisionStorage.add(collider2.getId());
+            addCollider(startPos, endPos, forward, v, virtual);
+            addCollider(endPos, startPos, reverse, v, virtual);
 
             v += step;
         }
 
-        Entity centerCollider = spawnCollision(false, primary, secondary, 0.5);
-        if (centerCollider != null) collisionStorage.add(centerCollider.getId());
+        addCollider(startPos, endPos, forward, 0.5, virtual);
+        return virtual ? collisionBoxes.size() : collisionStorage.size();
+    }
+
+    /**
+     * @return Whether this link has collision entities or collision boxes
+     */
+    boolean hasColliders() {
+        return !collisionStorage.isEmpty() || !collisionBoxes.isEmpty();
     }
 
     /**
@@ -170,39 +247,42 @@ public class ChainLink {
     }
 
     /**
-     * Spawns a collider at {@code v} percent between {@code start} and {@code end}
+     * Adds a collider at {@code v} percent between {@code startPos} and {@code endPos}
      *
-     * @param reverse Reverse start and end
-     * @param start   the entity at {@code v} = 0
-     * @param end     the entity at {@code v} = 1
-     * @param v       percent of the distance
-     * @return {@link ChainCollisionEntity} or null
+     * @param startPos the chain position at {@code v} = 0
+     * @param endPos   the chain position at {@code v} = 1
+     * @param curve    the curve from {@code startPos} to {@code endPos}
+     * @param v        percent of the distance
+     * @param virtual  true to add a collision box instead of an entity
      */
-    @Nullable
-    private Entity spawnCollision(boolean reverse, Entity start, Entity end, double v) {
-        assert primary.getWorld() instanceof ServerWorld;
-        Vec3d startPos = start.getPos().add(start.getLeashOffset(0));
-        Vec3d endPos = end.getPos().add(end.getLeashOffset(0));
-
-        Vec3d tmp = endPos;
-        if (reverse) {
-            endPos = startPos;
-            startPos = tmp;
-        }
-
-
-        Vec3d offset = Helper.getChainOffset(startPos, endPos);
-        startPos = startPos.add(offset.getX(), 0, offset.getZ());
-        endPos = endPos.add(-offset.getX(), 0, -offset.getZ());
-
-        double distance = startPos.distanceTo(endPos);
-
+    private void addCollider(Vec3d startPos, Vec3d endPos, CatenaryCurve curve, double v, boolean virtual) {
         double x = MathHelper.lerp(v, startPos.getX(), endPos.getX());
-        double y = startPos.getY() + Helper.drip2((v * distance), distance, endPos.getY() - startPos.getY());
+        double y = startPos.getY() + curve.y(v * curve.getD());
         double z = MathHelper.lerp(v, startPos.getZ(), endPos.getZ());
 
-        y += -ModEntityTypes.CHAIN_COLLISION.getHeight() + 2 / 16f;
+        float height = ModEntityTypes.CHAIN_COLLISION.getHeight();
+        y += -height + 2 / 16f;
 
+        if (virtual) {
+            // The same box that the collision entity would have
+            double w = ModEntityTypes.CHAIN_COLLISION.getWidth() / 2.0;
+            Box box = new Box(x - w, y, z - w, x + w, y + height, z + w);
+            collisionBoxes.add(box);
+            ChainCollisionIndex.of(primary.getWorld()).add(this, box);
+        } else {
+            Entity collider = spawnCollision(x, y, z);
+            if (collider != null) collisionStorage.add(collider.getId());
+        }
+    }
+
+    /**
+     * Spawns a collision entity at the given position.
+     *
+     * @return {@link ChainCollisionEntity} or null
+     */
+    @Nullable
+    private Entity spawnCollision(double x, double y, double z) {
+        assert primary.getWorld() instanceof ServerWorld;
         ChainCollisionEntity c = new ChainCollisionEntity(primary.getWorld(), x, y, z, this);
         if (primary.getWorld().spawnEntity(c)) {
             return c;
@@ -231,6 +311,20 @@ public class ChainLink {
         return !alive;
     }
 
+    @Environment(EnvType.CLIENT)
+    public LinkRenderData getRenderData() {
+        if (renderData == null) renderData = new LinkRenderData(this);
+        return renderData;
+    }
+
+    /**
+     * Frees the client side render resources of this link.
+     */
+    @Environment(EnvType.CLIENT)
+    private void closeRenderData() {
+        if (renderData != null) renderData.close();
+    }
+
     /**
      * Returns the squared distance between the primary and secondary.
      */
@@ -280,8 +374,16 @@ public class ChainLink {
         boolean drop = mayDrop;
         World world = primary.getWorld();
         this.alive = false;
-
-        if (world.isClient) return;
+        // The knots remove dead links in their tick
+        primary.wake();
+        if (secondary instanceof ChainKnotEntity secondaryKnot) secondaryKnot.wake();
+        if (secondary instanceof PlayerEntity player) HeldChainLinks.of(player).remove(this);
+        destroyVirtualCollision();
+
+        if (world.isClient) {
+            closeRenderData();
+            return;
+        }
 
         if (secondary instanceof PlayerEntity player && player.isCreative()) drop = false;
         // I think DO_TILE_DROPS makes more sense than DO_ENTITY_DROPS in this case
@@ -300,6 +402,7 @@ public class ChainLink {
         }
 
         destroyCollision();
+        ChainGraph.of((ServerWorld) world).remove(this);
         if (!primary.isRemoved() && !secondary.isRemoved())
             sendDetachChainPacket(world);
     }
@@ -307,18 +410,122 @@ public class ChainLink {
     /**
      * Removes the collision entities associated with this link.
      */
-    private void destroyCollision() {
+    void destroyCollision() {
         for (Integer entityId : collisionStorage) {
             Entity e = primary.getWorld().getEntityById(entityId);
+            // Colliders are not saved, missing ones were unloaded with their chunk
             if (e instanceof ChainCollisionEntity) {
                 e.remove(Entity.RemovalReason.DISCARDED);
-            } else {
+            } else if (e != null) {
                 ConnectibleChains.LOGGER.warn("Collision storage contained reference to {} (#{}) which is not a collision entity.", e, entityId);
             }
         }
         collisionStorage.clear();
     }
 
+    /**
+     * Removes the collision boxes of this link from the {@link ChainCollisionIndex}.
+     */
+    void destroyVirtualCollision() {
+        if (collisionBoxes.isEmpty()) return;
+        ChainCollisionIndex index = ChainCollisionIndex.of(primary.getWorld());
+        for (Box box : collisionBoxes) {
+            index.remove(this, box);
+        }
+        collisionBoxes.clear();
+    }
+
+    /**
+     * @return The collision boxes of this link in {@link ModConfig.CollisionMode#VIRTUAL virtual} collision mode
+     */
+    public List<Box> getCollisionBoxes() {
+        return collisionBoxes;
+    }
+
+    /**
+     * A player attacked the virtual collision of this link, it behaves like {@link ChainCollisionEntity#damage}.
+     *
+     * @param player The attacking player
+     * @param pos    Where the link was hit, the hit sound is played there
+     */
+    public void attack(PlayerEntity player, Vec3d pos) {
+        if (ChainLinkEntity.canDestroyWith(player.getMainHandStack())) {
+            destroy(!player.isCreative());
+        } else {
+            primary.getWorld().playSound(null, pos.x, pos.y, pos.z, SoundEvents.BLOCK_CHAIN_HIT, SoundCategory.NEUTRAL, 0.5F, 1.0F);
+        }
+    }
+
+    /**
+     * A player used the virtual collision of this link, it behaves like {@link ChainCollisionEntity#interact}.
+     *
+     * @param player The player that interacted.
+     * @param hand   The hand that interacted.
+     * @return true when the link was destroyed
+     */
+    public boolean interact(PlayerEntity player, Hand hand) {
+        if (ChainLinkEntity.canDestroyWith(player.getStackInHand(hand))) {
+            destroy(!player.isCreative());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Handles the {@link NetworkingPackets#C2S_CHAIN_INTERACT_PACKET} that a client sends when it attacks or uses
+     * the virtual collision of a link. The packet identifies the link by the ids of its entities,
+     * the server only checks that the link is in reach.
+     */
+    public static void receiveInteractPacket(MinecraftServer server, ServerPlayerEntity player, ServerPlayNetworkHandler handler,
+                                             PacketByteBuf buf, PacketSender responseSender) {
+        int primaryId = buf.readVarInt();
+        int secondaryId = buf.readVarInt();
+        boolean attack = buf.readBoolean();
+        Hand hand = buf.readEnumConstant(Hand.class);
+
+        server.execute(() -> {
+            if (player.isSpectator()) return;
+            ServerWorld world = player.getServerWorld();
+            if (!(world.getEntityById(primaryId) instanceof ChainKnotEntity knot)) return;
+            Entity secondary = world.getEntityById(secondaryId);
+
+            for (ChainLink link : knot.getLinks()) {
+                if (link.secondary != secondary || link.isDead()) continue;
+                Vec3d hitPos = link.getClosestCollisionPoint(player.getEyePos());
+                if (hitPos == null || hitPos.squaredDistanceTo(player.getEyePos()) > ServerPlayNetworkHandler.MAX_BREAK_SQUARED_DISTANCE) return;
+
+                player.updateLastActionTime();
+                if (attack) {
+                    link.attack(player, hitPos);
+                } else {
+                    link.interact(player, hand);
+                }
+                return;
+            }
+        });
+    }
+
+    /**
+     * @return The point on the collision boxes that is closest to {@code pos} or null when there are none
+     */
+    @Nullable
+    private Vec3d getClosestCollisionPoint(Vec3d pos) {
+        Vec3d closest = null;
+        double closestDistance = Double.MAX_VALUE;
+        for (Box box : collisionBoxes) {
+            Vec3d point = new Vec3d(
+                    MathHelper.clamp(pos.x, box.minX, box.maxX),
+                    MathHelper.clamp(pos.y, box.minY, box.maxY),
+                    MathHelper.clamp(pos.z, box.minZ, box.maxZ));
+            double distance = point.squaredDistanceTo(pos);
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closest = point;
+            }
+        }
+        return closest;
+    }
+
     /**
      * Send a package to all the clients around this entity that notifies them of this link's destruction.
      */
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.chain;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.entity.player.PlayerEntity;
+
+import java.util.List;
+
+/**
+ * The links that a player is holding, so they can be found without searching the knots around the player.
+ * Links are added by {@link ChainLink#create} and removed by {@link ChainLink#destroy}.
+ * <p>
+ * A link can stay in the list after its knot was unloaded, because unloaded knots do not destroy their links.
+ * These are skipped and removed by {@link #getLinks()}.
+ *
+ * @see com.github.legoatoom.connectiblechains.mixin.entity.PlayerEntityMixin
+ */
+public final class HeldChainLinks {
+    private final ObjectArrayList<ChainLink> links = new ObjectArrayList<>(2);
+
+    /**
+     * @return The held links of {@code player}
+     */
+    public static HeldChainLinks of(PlayerEntity player) {
+        return ((Holder) player).connectiblechains$getHeldLinks();
+    }
+
+    void add(ChainLink link) {
+        links.add(link);
+    }
+
+    void remove(ChainLink link) {
+        // Links are compared by identity, equal links of different knots are separate entries
+        for (int i = 0; i < links.size(); i++) {
+            if (links.get(i) == link) {
+                links.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The links that are alive and whose knot is still loaded, the list must not be modified
+     */
+    public List<ChainLink> getLinks() {
+        links.removeIf(link -> link.isDead() || link.primary.isRemoved());
+        return links;
+    }
+
+    /**
+     * Implemented by every {@link PlayerEntity}.
+     */
+    public interface Holder {
+        HeldChainLinks connectiblechains$getHeldLinks();
+    }
+}
@@ -20,6 +20,8 @@ import net.fabricmc.api.Environment;
 import net.minecraft.entity.Entity;
 import net.minecraft.item.Item;
 
+import java.util.function.Consumer;
+
 /**
  * Due to the asynchronous nature of networking an attach- or detach-packet cann arrive before the secondary exists.
  * This class acts as a temporary storage until the real link can be created.
@@ -52,13 +54,15 @@ public class IncompleteChainLink {
     /**
      * Tries to complete the chain link by looking for an entity with {@link #secondaryId}.
      *
+     * @param onCreated Called with the link when it has been created
      * @return true if the incomplete chain link should be removed
      */
-    public boolean tryCompleteOrRemove() {
+    public boolean tryCompleteOrRemove(Consumer<ChainLink> onCreated) {
         if (isDead()) return true;
         Entity secondary = primary.getWorld().getEntityById(secondaryId);
         if (secondary == null) return false;
-        ChainLink.create(primary, secondary, sourceItem);
+        ChainLink link = ChainLink.create(primary, secondary, sourceItem);
+        if (link != null) onCreated.accept(link);
         return true;
     }
 
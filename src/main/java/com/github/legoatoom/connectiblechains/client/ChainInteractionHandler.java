@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.client;
+
+import com.github.legoatoom.connectiblechains.chain.ChainCollisionIndex;
+import com.github.legoatoom.connectiblechains.entity.ChainLinkEntity;
+import com.github.legoatoom.connectiblechains.util.NetworkingPackets;
+import io.netty.buffer.Unpooled;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.network.ClientPlayerEntity;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.util.Hand;
+import net.minecraft.util.hit.HitResult;
+import net.minecraft.util.math.Vec3d;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Lets the player attack and use links that have virtual collision.
+ * Without collision entities the crosshair can not target a link, so the link is searched with a raycast
+ * when the player attacks or uses and the server is told which link was hit.
+ *
+ * @see ChainCollisionIndex
+ * @see com.github.legoatoom.connectiblechains.mixin.client.MinecraftClientMixin
+ */
+@Environment(EnvType.CLIENT)
+public class ChainInteractionHandler {
+
+    /**
+     * Attacks the link that the player is looking at, when it is closer than the crosshair target.
+     *
+     * @return true when a link was attacked and the vanilla attack should not happen
+     */
+    public static boolean tryAttack(MinecraftClient client) {
+        ClientPlayerEntity player = client.player;
+        if (player == null || player.isSpectator()) return false;
+        ChainCollisionIndex.Hit hit = raycast(client, player);
+        if (hit == null) return false;
+
+        sendInteractPacket(hit, true, Hand.MAIN_HAND);
+        player.resetLastAttackedTicks();
+        player.swingHand(Hand.MAIN_HAND);
+        return true;
+    }
+
+    /**
+     * Uses the link that the player is looking at with the first hand that holds shears.
+     *
+     * @return true when a link was used and the vanilla use should not happen
+     */
+    public static boolean tryUse(MinecraftClient client) {
+        ClientPlayerEntity player = client.player;
+        if (player == null || player.isSpectator()) return false;
+        for (Hand hand : Hand.values()) {
+            if (!ChainLinkEntity.canDestroyWith(player.getStackInHand(hand))) continue;
+            ChainCollisionIndex.Hit hit = raycast(client, player);
+            if (hit == null) return false;
+
+            sendInteractPacket(hit, false, hand);
+            player.swingHand(hand);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The link in reach that is hit before the crosshair target or null
+     */
+    @Nullable
+    private static ChainCollisionIndex.Hit raycast(MinecraftClient client, ClientPlayerEntity player) {
+        if (client.interactionManager == null) return null;
+        double reach = client.interactionManager.getReachDistance();
+        Vec3d start = player.getCameraPosVec(1.0F);
+        Vec3d end = start.add(player.getRotationVec(1.0F).multiply(reach));
+        ChainCollisionIndex.Hit hit = ChainCollisionIndex.of(player.getWorld()).raycast(start, end);
+        if (hit == null) return null;
+
+        HitResult target = client.crosshairTarget;
+        if (target != null && target.getType() != HitResult.Type.MISS
+                && target.getPos().squaredDistanceTo(start) < hit.pos().squaredDistanceTo(start)) {
+            return null;
+        }
+        return hit;
+    }
+
+    private static void sendInteractPacket(ChainCollisionIndex.Hit hit, boolean attack, Hand hand) {
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+        buf.writeVarInt(hit.link().primary.getId());
+        buf.writeVarInt(hit.link().secondary.getId());
+        buf.writeBoolean(attack);
+        buf.writeEnumConstant(hand);
+        ClientPlayNetworking.send(NetworkingPackets.C2S_CHAIN_INTERACT_PACKET, buf);
+    }
+}
@@ -17,6 +17,7 @@ package com.github.legoatoom.connectiblechains.client;
 import com.github.legoatoom.connectiblechains.ConnectibleChains;
 import com.github.legoatoom.connectiblechains.chain.ChainLink;
 import com.github.legoatoom.connectiblechains.chain.IncompleteChainLink;
+import com.github.legoatoom.connectiblechains.client.render.entity.ChainSectionRenderer;
 import com.github.legoatoom.connectiblechains.entity.ChainCollisionEntity;
 import com.github.legoatoom.connectiblechains.entity.ChainKnotEntity;
 import com.github.legoatoom.connectiblechains.util.NetworkingPackets;
@@ -41,8 +42,13 @@ public class ChainPacketHandler {
      * result in a NPE. The links will try to be completed each world tick.
      */
     private final ObjectList<IncompleteChainLink> incompleteLinks = new ObjectArrayList<>(256);
+    /**
+     * Is notified about every link that is attached, detached or changes its type.
+     */
+    private final ChainSectionRenderer sectionRenderer;
 
-    public ChainPacketHandler() {
+    public ChainPacketHandler(ChainSectionRenderer sectionRenderer) {
+        this.sectionRenderer = sectionRenderer;
         register();
     }
 
@@ -73,6 +79,7 @@ public class ChainPacketHandler {
                                 for (ChainLink link : knot.getLinks()) {
                                     if (link.secondary == to) {
                                         link.destroy(true);
+                                        sectionRenderer.markDirty(link);
                                     }
                                 }
                             }
@@ -143,6 +150,7 @@ public class ChainPacketHandler {
                 Item chainType = Registries.ITEM.get(typeId);
                 if (entity instanceof ChainKnotEntity knot) {
                     knot.updateChainType(chainType);
+                    sectionRenderer.markDirty(knot);
                 } else {
                     logBadActionTarget("change type of", entity, knotId, "chain knot");
                 }
@@ -169,7 +177,8 @@ public class ChainPacketHandler {
                 if (to == null) {
                     incompleteLinks.add(new IncompleteChainLink(knot, toIds[i], chainType));
                 } else {
-                    ChainLink.create(knot, to, chainType);
+                    ChainLink link = ChainLink.create(knot, to, chainType);
+                    if (link != null) onLinkCreated(link);
                 }
             }
         } else {
@@ -218,6 +227,15 @@ public class ChainPacketHandler {
      * Completed links or links that are no longer valid because the primary is dead are removed.
      */
     public void tick() {
-        incompleteLinks.removeIf(IncompleteChainLink::tryCompleteOrRemove);
+        incompleteLinks.removeIf(link -> link.tryCompleteOrRemove(this::onLinkCreated));
+    }
+
+    /**
+     * Adds a new link to the section buffers and starts building its model in the background,
+     * so joining a world with many chains does not build all of them in the first frame.
+     */
+    private void onLinkCreated(ChainLink link) {
+        sectionRenderer.addLink(link);
+        ClientInitializer.getInstance().getChainKnotEntityRenderer().ifPresent(renderer -> renderer.prefetchLink(link));
     }
 }
@@ -15,12 +15,20 @@
 package com.github.legoatoom.connectiblechains.client;
 
 import com.github.legoatoom.connectiblechains.ConnectibleChains;
+import com.github.legoatoom.connectiblechains.chain.ChainCollisionIndex;
 import com.github.legoatoom.connectiblechains.client.render.entity.ChainCollisionEntityRenderer;
+import com.github.legoatoom.connectiblechains.client.render.entity.ChainInstanceRenderer;
 import com.github.legoatoom.connectiblechains.client.render.entity.ChainKnotEntityRenderer;
+import com.github.legoatoom.connectiblechains.client.render.entity.ChainRenderLayer;
+import com.github.legoatoom.connectiblechains.client.render.entity.ChainRenderStats;
+import com.github.legoatoom.connectiblechains.client.render.entity.ChainSectionRenderer;
+import com.github.legoatoom.connectiblechains.client.render.entity.ChainTextureCache;
+import com.github.legoatoom.connectiblechains.client.render.entity.LinkRenderData;
 import com.github.legoatoom.connectiblechains.client.render.entity.model.ChainKnotEntityModel;
 import com.github.legoatoom.connectiblechains.config.ModConfig;
 import com.github.legoatoom.connectiblechains.entity.ChainCollisionEntity;
 import com.github.legoatoom.connectiblechains.entity.ChainKnotEntity;
+import com.github.legoatoom.connectiblechains.entity.ChainKnotIndex;
 import com.github.legoatoom.connectiblechains.entity.ModEntityTypes;
 import com.github.legoatoom.connectiblechains.item.ChainItemInfo;
 import com.github.legoatoom.connectiblechains.util.Helper;
@@ -28,17 +36,23 @@ import com.github.legoatoom.connectiblechains.util.NetworkingPackets;
 import me.shedaniel.autoconfig.AutoConfig;
 import me.shedaniel.autoconfig.ConfigHolder;
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientChunkEvents;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientEntityEvents;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.item.v1.ItemTooltipCallback;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.fabricmc.fabric.api.client.rendering.v1.CoreShaderRegistrationCallback;
 import net.fabricmc.fabric.api.client.rendering.v1.EntityModelLayerRegistry;
 import net.fabricmc.fabric.api.client.rendering.v1.EntityRendererRegistry;
+import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
 import net.fabricmc.fabric.api.event.client.player.ClientPickBlockGatherCallback;
+import net.fabricmc.fabric.api.resource.ResourceManagerHelper;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.render.entity.model.EntityModelLayer;
 import net.minecraft.entity.Entity;
 import net.minecraft.item.ItemStack;
+import net.minecraft.resource.ResourceType;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.ActionResult;
 import net.minecraft.util.hit.EntityHitResult;
@@ -56,9 +70,12 @@ public class ClientInitializer implements ClientModInitializer {
 
     public static final EntityModelLayer CHAIN_KNOT = new EntityModelLayer(Helper.identifier("chain_knot"), "main");
     private static ClientInitializer instance;
-//    public final ChainTextureManager textureManager = new ChainTextureManager();
+    private final ChainTextureCache chainTextureCache = new ChainTextureCache();
     private ChainKnotEntityRenderer chainKnotEntityRenderer;
     private ChainPacketHandler chainPacketHandler;
+    private final ChainSectionRenderer chainSectionRenderer = new ChainSectionRenderer();
+    private final ChainInstanceRenderer chainInstanceRenderer = new ChainInstanceRenderer();
+    private final ChainRenderStats chainRenderStats = new ChainRenderStats();
 
     @Override
     public void onInitializeClient() {
@@ -83,6 +100,7 @@ public class ClientInitializer implements ClientModInitializer {
 
             if (clientInitializer != null) {
                 clientInitializer.getChainKnotEntityRenderer().ifPresent(renderer -> renderer.getChainRenderer().purge());
+                clientInitializer.getChainSectionRenderer().markAllDirty();
             }
             MinecraftServer server = MinecraftClient.getInstance().getServer();
             if (server != null) {
@@ -97,24 +115,49 @@ public class ClientInitializer implements ClientModInitializer {
     private void initRenderers() {
         ConnectibleChains.LOGGER.info("Initializing Renderers.");
         EntityRendererRegistry.register(ModEntityTypes.CHAIN_KNOT, ctx -> {
-            chainKnotEntityRenderer = new ChainKnotEntityRenderer(ctx);
+            chainKnotEntityRenderer = new ChainKnotEntityRenderer(ctx, chainTextureCache, chainInstanceRenderer, chainRenderStats);
             return chainKnotEntityRenderer;
         });
         EntityRendererRegistry.register(ModEntityTypes.CHAIN_COLLISION,
                 ChainCollisionEntityRenderer::new);
 
         EntityModelLayerRegistry.registerModelLayer(CHAIN_KNOT, ChainKnotEntityModel::getTexturedModelData);
+
+        CoreShaderRegistrationCallback.EVENT.register(context -> {
+            context.register(ChainRenderLayer.CHAIN_SHADER_ID, ChainRenderLayer.CHAIN_FORMAT, ChainRenderLayer::setChainShader);
+            context.register(ChainRenderLayer.CHAIN_INSTANCED_SHADER_ID, ChainRenderLayer.CHAIN_FORMAT, ChainRenderLayer::setChainInstancedShader);
+        });
+
+        // Static chains are drawn together with the terrain, before the entities
+        WorldRenderEvents.BEFORE_ENTITIES.register(context -> {
+            if (chainKnotEntityRenderer == null) return;
+            chainRenderStats.endFrame(chainKnotEntityRenderer.getChainRenderer());
+            chainKnotEntityRenderer.getChainRenderer().collectBuiltModels();
+            chainSectionRenderer.render(context, chainKnotEntityRenderer);
+        });
+
+        // The instances are collected while the knots are rendered
+        WorldRenderEvents.AFTER_ENTITIES.register(chainInstanceRenderer::render);
     }
 
     private void registerNetworkEventHandlers() {
-        chainPacketHandler = new ChainPacketHandler();
+        chainPacketHandler = new ChainPacketHandler(chainSectionRenderer);
 
         ClientPlayConnectionEvents.INIT.register((handler, client) -> {
             // Load client config
             ConnectibleChains.runtimeConfig.copyFrom(ConnectibleChains.fileConfig);
             getChainKnotEntityRenderer().ifPresent(r -> r.getChainRenderer().purge());
+            chainSectionRenderer.markAllDirty();
         });
 
+        // Link buffers are re-uploaded when their model changes, but when leaving the world they have to be freed
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> client.execute(() -> {
+            LinkRenderData.releaseAll();
+            LinkRenderData.clearLightVersions();
+            chainSectionRenderer.clear();
+            chainInstanceRenderer.clear();
+        }));
+
         ClientPlayNetworking.registerGlobalReceiver(NetworkingPackets.S2C_CONFIG_SYNC_PACKET,
                 (client, handler, packetByteBuf, responseSender) -> {
                     // Apply server config
@@ -128,6 +171,7 @@ public class ClientInitializer implements ClientModInitializer {
                         ConnectibleChains.LOGGER.error("Could not deserialize config: ", e);
                     }
                     getChainKnotEntityRenderer().ifPresent(renderer -> renderer.getChainRenderer().purge());
+                    chainSectionRenderer.markAllDirty();
                 });
     }
 
@@ -144,16 +188,36 @@ public class ClientInitializer implements ClientModInitializer {
             return ItemStack.EMPTY;
         });
 
-        ClientTickEvents.START_WORLD_TICK.register(world -> chainPacketHandler.tick());
+        // The links of unloaded knots are not destroyed, the sections have to forget them
+        ClientEntityEvents.ENTITY_UNLOAD.register((entity, world) -> {
+            if (entity instanceof ChainKnotEntity knot) chainSectionRenderer.onKnotUnload(knot);
+        });
+        ClientEntityEvents.ENTITY_LOAD.register(ChainKnotIndex::onEntityLoad);
+        ClientEntityEvents.ENTITY_UNLOAD.register(ChainKnotIndex::onEntityUnload);
+        ClientEntityEvents.ENTITY_UNLOAD.register(ChainCollisionIndex::onEntityUnload);
+        ClientChunkEvents.CHUNK_UNLOAD.register(LinkRenderData::onChunkUnload);
+
+        ClientTickEvents.START_WORLD_TICK.register(world -> {
+            chainPacketHandler.tick();
+            LinkRenderData.releaseUnused();
+        });
 
-//        ResourceManagerHelper.get(ResourceType.CLIENT_RESOURCES).registerReloadListener(textureManager);
+        ResourceManagerHelper.get(ResourceType.CLIENT_RESOURCES).registerReloadListener(chainTextureCache);
     }
 
     public static ClientInitializer getInstance() {
         return instance;
     }
 
-    private Optional<ChainKnotEntityRenderer> getChainKnotEntityRenderer() {
+    public ChainSectionRenderer getChainSectionRenderer() {
+        return chainSectionRenderer;
+    }
+
+    public ChainRenderStats getChainRenderStats() {
+        return chainRenderStats;
+    }
+
+    public Optional<ChainKnotEntityRenderer> getChainKnotEntityRenderer() {
         return Optional.ofNullable(chainKnotEntityRenderer);
     }
 }
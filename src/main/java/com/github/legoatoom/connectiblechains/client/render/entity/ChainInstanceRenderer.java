@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.client.render.entity;
+
+import com.github.legoatoom.connectiblechains.ConnectibleChains;
+import com.github.legoatoom.connectiblechains.config.ModConfig;
+import com.mojang.blaze3d.platform.GlStateManager;
+import com.mojang.blaze3d.systems.RenderSystem;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderContext;
+import net.minecraft.client.gl.ShaderProgram;
+import net.minecraft.client.gl.VertexBuffer;
+import net.minecraft.client.render.BufferBuilder;
+import net.minecraft.client.render.RenderLayer;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix4f;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Draws static links with GPU instancing.
+ * Links that share a {@link ChainRenderer.BakeKey} also share the same cached {@link ChainModel}, so every model is
+ * uploaded once and all links that use it are drawn with a single instanced draw call per chain type.
+ * <p>
+ * While the entities are rendered, the links only add their transformation and light levels as an instance,
+ * see {@link #add}. The instances are drawn after all entities have been rendered.
+ * The model is stored in link space, the {@code chain_instanced} shader rotates it around the Y axis and
+ * moves it to the origin of the link. Instead of the light, the vertices contain the position along the chain
+ * so the shader can interpolate the light levels of each instance, see {@link ChainModel#computeInstanceLight}.
+ */
+@Environment(EnvType.CLIENT)
+public class ChainInstanceRenderer {
+    /**
+     * The camera relative origin and rotation, then the block and sky light levels at both ends.
+     */
+    private static final int FLOATS_PER_INSTANCE = 8;
+    private static final int INSTANCE_STRIDE = FLOATS_PER_INSTANCE * Float.BYTES;
+    /**
+     * Meshes that have not been drawn for this many frames are freed.
+     */
+    private static final int MESH_TIMEOUT_FRAMES = 60;
+    @Nullable
+    private static Boolean supported;
+
+    /**
+     * The instances of the current frame by instanced layer and model.
+     */
+    private final Reference2ObjectOpenHashMap<RenderLayer, Reference2ObjectOpenHashMap<ChainModel, FloatArrayList>> batches = new Reference2ObjectOpenHashMap<>(4);
+    private final Reference2ObjectOpenHashMap<ChainModel, Mesh> meshes = new Reference2ObjectOpenHashMap<>(64);
+    private final Matrix4f identity = new Matrix4f();
+    private int frame = 0;
+    private int instanceCount = 0;
+
+    @Nullable
+    private BufferBuilder meshBuilder;
+    @Nullable
+    private int[] meshLight;
+    private int instanceBufferId = -1;
+    @Nullable
+    private ByteBuffer instanceData;
+
+    /**
+     * The shader and the locations of its instance attributes, they are looked up again when the shader is reloaded.
+     */
+    @Nullable
+    private ShaderProgram attributeShader;
+    private int transformLocation = -1;
+    private int lightLocation = -1;
+
+    /**
+     * @return true when static links should be instanced
+     */
+    public static boolean isActive() {
+        return ConnectibleChains.runtimeConfig.getStaticChainRendering() == ModConfig.StaticChainRendering.INSTANCED
+                && !ConnectibleChains.runtimeConfig.doDebugDraw()
+                && isSupported();
+    }
+
+    /**
+     * Instance attributes need OpenGL 3.3, Minecraft itself only requires 3.2.
+     * Must be called on the render thread.
+     */
+    private static boolean isSupported() {
+        if (supported == null) {
+            supported = GL.getCapabilities().OpenGL33;
+            if (!supported) ConnectibleChains.LOGGER.warn("OpenGL 3.3 is not available, chains will not be instanced");
+        }
+        return supported;
+    }
+
+    /**
+     * Adds an instance of {@code model} that is drawn at the end of the entity rendering.
+     *
+     * @param layer  The instanced chain layer, see {@link ChainRenderLayer#getChainInstanced}
+     * @param model  The model of the link, it should be a cached model so it can be shared
+     * @param x      The origin of the link relative to the camera
+     * @param y      The origin of the link relative to the camera
+     * @param z      The origin of the link relative to the camera
+     * @param angleY The rotation of the link around the Y axis
+     * @param light  The light levels at both ends, see {@link LinkRenderData#getLight}
+     */
+    public void add(RenderLayer layer, ChainModel model, float x, float y, float z, float angleY, int light) {
+        FloatArrayList instances = batches
+                .computeIfAbsent(layer, l -> new Reference2ObjectOpenHashMap<>(64))
+                .computeIfAbsent(model, m -> new FloatArrayList(FLOATS_PER_INSTANCE * 16));
+        instances.add(x);
+        instances.add(y);
+        instances.add(z);
+        instances.add(angleY);
+        instances.add(light & 0xF);
+        instances.add(light >> 4 & 0xF);
+        instances.add(light >> 8 & 0xF);
+        instances.add(light >> 12 & 0xF);
+        instanceCount++;
+    }
+
+    /**
+     * Draws all instances that were added in this frame.
+     *
+     * @param context The world render context, after the entities have been rendered
+     */
+    public void render(WorldRenderContext context) {
+        frame++;
+        // Models without instances in this frame may have been evicted from the cache, so the batch is not kept
+        for (ObjectIterator<Reference2ObjectOpenHashMap<ChainModel, FloatArrayList>> layers = batches.values().iterator(); layers.hasNext(); ) {
+            Reference2ObjectOpenHashMap<ChainModel, FloatArrayList> models = layers.next();
+            models.values().removeIf(FloatArrayList::isEmpty);
+            if (models.isEmpty()) layers.remove();
+        }
+        if (instanceCount > 0) {
+            uploadInstances();
+            draw(context.matrixStack().peek().getPositionMatrix(), context.projectionMatrix());
+            instanceCount = 0;
+        }
+
+        for (ObjectIterator<Mesh> iterator = meshes.values().iterator(); iterator.hasNext(); ) {
+            Mesh mesh = iterator.next();
+            if (frame - mesh.lastUsedFrame > MESH_TIMEOUT_FRAMES) {
+                mesh.buffer.close();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Writes the instances of all batches into the instance buffer, one batch after another.
+     */
+    private void uploadInstances() {
+        int size = instanceCount * INSTANCE_STRIDE;
+        if (instanceData == null || instanceData.capacity() < size) {
+            int capacity = size;
+            if (instanceData != null) {
+                capacity = Math.max(capacity, instanceData.capacity() * 2);
+                MemoryUtil.memFree(instanceData);
+            }
+            instanceData = MemoryUtil.memAlloc(capacity);
+        }
+        instanceData.clear();
+        for (Reference2ObjectOpenHashMap<ChainModel, FloatArrayList> models : batches.values()) {
+            for (FloatArrayList instances : models.values()) {
+                float[] elements = instances.elements();
+                for (int i = 0; i < instances.size(); i++) {
+                    instanceData.putFloat(elements[i]);
+                }
+            }
+        }
+        instanceData.flip();
+
+        if (instanceBufferId == -1) instanceBufferId = GlStateManager._glGenBuffers();
+        GlStateManager._glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceBufferId);
+        GlStateManager._glBufferData(GL15.GL_ARRAY_BUFFER, instanceData, GL15.GL_STREAM_DRAW);
+    }
+
+    private void draw(Matrix4f viewMatrix, Matrix4f projectionMatrix) {
+        long offset = 0;
+        for (Reference2ObjectMap.Entry<RenderLayer, Reference2ObjectOpenHashMap<ChainModel, FloatArrayList>> layerEntry : batches.reference2ObjectEntrySet()) {
+            RenderLayer layer = layerEntry.getKey();
+            layer.startDrawing();
+            ShaderProgram shader = RenderSystem.getShader();
+            if (shader != null) {
+                setupShader(shader, viewMatrix, projectionMatrix);
+                shader.bind();
+            }
+
+            for (Reference2ObjectMap.Entry<ChainModel, FloatArrayList> modelEntry : layerEntry.getValue().reference2ObjectEntrySet()) {
+                FloatArrayList instances = modelEntry.getValue();
+                int count = instances.size() / FLOATS_PER_INSTANCE;
+                if (count == 0) continue;
+                if (shader != null && transformLocation >= 0 && lightLocation >= 0) {
+                    Mesh mesh = getMesh(layer, modelEntry.getKey());
+                    mesh.buffer.bind();
+                    // The instance attributes are part of the state of the vertex array of the mesh
+                    GlStateManager._glBindBuffer(GL15.GL_ARRAY_BUFFER, instanceBufferId);
+                    GlStateManager._enableVertexAttribArray(transformLocation);
+                    GlStateManager._vertexAttribPointer(transformLocation, 4, GL11.GL_FLOAT, false, INSTANCE_STRIDE, offset);
+                    GL33.glVertexAttribDivisor(transformLocation, 1);
+                    GlStateManager._enableVertexAttribArray(lightLocation);
+                    GlStateManager._vertexAttribPointer(lightLocation, 4, GL11.GL_FLOAT, false, INSTANCE_STRIDE, offset + 4 * Float.BYTES);
+                    GL33.glVertexAttribDivisor(lightLocation, 1);
+                    GL31.glDrawArraysInstanced(GL11.GL_TRIANGLE_STRIP, 0, mesh.vertexCount, count);
+                }
+                offset += (long) count * INSTANCE_STRIDE;
+                instances.clear();
+            }
+
+            if (shader != null) shader.unbind();
+            layer.endDrawing();
+        }
+        VertexBuffer.unbind();
+    }
+
+    /**
+     * Sets the uniforms like {@link VertexBuffer#draw(Matrix4f, Matrix4f, ShaderProgram)} does.
+     */
+    private void setupShader(ShaderProgram shader, Matrix4f viewMatrix, Matrix4f projectionMatrix) {
+        if (shader != attributeShader) {
+            attributeShader = shader;
+            transformLocation = GL20.glGetAttribLocation(shader.getGlRef(), "InstanceTransform");
+            lightLocation = GL20.glGetAttribLocation(shader.getGlRef(), "InstanceLight");
+        }
+        for (int i = 0; i < 12; i++) {
+            shader.addSampler("Sampler" + i, RenderSystem.getShaderTexture(i));
+        }
+        if (shader.modelViewMat != null) shader.modelViewMat.set(viewMatrix);
+        if (shader.projectionMat != null) shader.projectionMat.set(projectionMatrix);
+        if (shader.colorModulator != null) shader.colorModulator.set(RenderSystem.getShaderColor());
+        if (shader.fogStart != null) shader.fogStart.set(RenderSystem.getShaderFogStart());
+        if (shader.fogEnd != null) shader.fogEnd.set(RenderSystem.getShaderFogEnd());
+        if (shader.fogColor != null) shader.fogColor.set(RenderSystem.getShaderFogColor());
+        if (shader.fogShape != null) shader.fogShape.set(RenderSystem.getShaderFogShape().getId());
+    }
+
+    /**
+     * Returns the uploaded mesh of {@code model} and uploads it when necessary.
+     */
+    private Mesh getMesh(RenderLayer layer, ChainModel model) {
+        Mesh mesh = meshes.get(model);
+        if (mesh == null) {
+            if (meshBuilder == null) meshBuilder = new BufferBuilder(layer.getExpectedBufferSize());
+            meshBuilder.begin(layer.getDrawMode(), layer.getVertexFormat());
+            meshLight = model.computeInstanceLight(meshLight);
+            model.render(meshBuilder, identity, meshLight);
+            VertexBuffer buffer = new VertexBuffer();
+            buffer.bind();
+            buffer.upload(meshBuilder.end());
+            mesh = new Mesh(buffer, model.vertices().length / 3);
+            meshes.put(model, mesh);
+        }
+        mesh.lastUsedFrame = frame;
+        return mesh;
+    }
+
+    /**
+     * Frees all meshes and forgets all instances, used when the world is left.
+     */
+    public void clear() {
+        for (Mesh mesh : meshes.values()) {
+            mesh.buffer.close();
+        }
+        meshes.clear();
+        batches.clear();
+        instanceCount = 0;
+    }
+
+    /**
+     * @return The number of models that are uploaded
+     */
+    public int getMeshCount() {
+        return meshes.size();
+    }
+
+    private static class Mesh {
+        private final VertexBuffer buffer;
+        private final int vertexCount;
+        private int lastUsedFrame;
+
+        private Mesh(VertexBuffer buffer, int vertexCount) {
+            this.buffer = buffer;
+            this.vertexCount = vertexCount;
+        }
+    }
+}
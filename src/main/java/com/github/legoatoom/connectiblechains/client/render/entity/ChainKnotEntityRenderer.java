@@ -18,8 +18,8 @@ import com.github.legoatoom.connectiblechains.ConnectibleChains;
 import com.github.legoatoom.connectiblechains.chain.ChainLink;
 import com.github.legoatoom.connectiblechains.client.ClientInitializer;
 import com.github.legoatoom.connectiblechains.client.render.entity.model.ChainKnotEntityModel;
+import com.github.legoatoom.connectiblechains.config.ModConfig;
 import com.github.legoatoom.connectiblechains.entity.ChainKnotEntity;
-import com.github.legoatoom.connectiblechains.util.Helper;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.minecraft.client.render.*;
@@ -30,16 +30,16 @@ import net.minecraft.entity.Entity;
 import net.minecraft.entity.decoration.AbstractDecorationEntity;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.item.Item;
-import net.minecraft.registry.Registries;
 import net.minecraft.text.LiteralTextContent;
 import net.minecraft.text.MutableText;
 import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.math.Vec3d;
-import net.minecraft.world.LightType;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix3f;
 import org.joml.Matrix4f;
-import org.joml.Quaternionf;
 import org.joml.Vector3f;
 
 import java.util.List;
@@ -58,10 +58,40 @@ import java.util.List;
 @Environment(EnvType.CLIENT)
 public class ChainKnotEntityRenderer extends EntityRenderer<ChainKnotEntity> {
     private final ChainKnotEntityModel<ChainKnotEntity> model;
-    private final ChainRenderer chainRenderer = new ChainRenderer();
+    private final ChainRenderer chainRenderer;
+    private final ChainTextureCache textureCache;
+    private final ChainRenderStats stats;
+    private final ChainInstanceRenderer instanceRenderer;
+    // Scratch objects used by renderChainLink, so it does not allocate for every link.
+    private final Matrix4f linkPositionMatrix = new Matrix4f();
+    private final Matrix3f linkNormalMatrix = new Matrix3f();
+    private final Vector3f chainVec = new Vector3f();
+    private float chainOffsetX, chainOffsetZ;
+    private final ChainRenderer.BakeKey bakeKey = new ChainRenderer.BakeKey();
+    private final LinkBounds linkBounds = new LinkBounds();
+    /**
+     * The frustum of the current frame, it is passed to {@link #shouldRender} before the knot is rendered.
+     */
+    @Nullable
+    private Frustum frustum;
+    /**
+     * The layer and buffer that the links of the current knot are written to, see {@link #getLinkBuffer}.
+     */
+    @Nullable
+    private RenderLayer linkLayer;
+    @Nullable
+    private VertexConsumer linkBuffer;
+    /**
+     * Set while {@link #bakeLink} writes a link into a section buffer, which is drawn as a triangle strip.
+     */
+    private boolean baking = false;
 
-    public ChainKnotEntityRenderer(EntityRendererFactory.Context context) {
+    public ChainKnotEntityRenderer(EntityRendererFactory.Context context, ChainTextureCache textureCache, ChainInstanceRenderer instanceRenderer, ChainRenderStats stats) {
         super(context);
+        this.textureCache = textureCache;
+        this.instanceRenderer = instanceRenderer;
+        this.stats = stats;
+        this.chainRenderer = new ChainRenderer(stats);
         this.model = new ChainKnotEntityModel<>(context.getPart(ClientInitializer.CHAIN_KNOT));
     }
 
@@ -69,15 +99,32 @@ public class ChainKnotEntityRenderer extends EntityRenderer<ChainKnotEntity> {
         return chainRenderer;
     }
 
+    public ChainRenderStats getRenderStats() {
+        return stats;
+    }
+
+    /**
+     * The knot is rendered when it is visible itself or when any of its links is visible.
+     * Each link is tested against the frustum with its own bounds, see {@link LinkBounds}.
+     */
     @Override
     public boolean shouldRender(ChainKnotEntity entity, Frustum frustum, double x, double y, double z) {
+        this.frustum = frustum;
         if (entity.ignoreCameraFrustum) return true;
-        for (ChainLink link : entity.getLinks()) {
-            if (link.primary != entity) continue;
-            if (link.secondary instanceof PlayerEntity) return true;
-            else if (link.secondary.shouldRender(x, y, z)) return true;
+        if (super.shouldRender(entity, frustum, x, y, z)) return true;
+        List<ChainLink> links = entity.getLinks();
+        int culled = 0;
+        for (int i = 0; i < links.size(); i++) {
+            ChainLink link = links.get(i);
+            if (link.primary != entity || link.isDead()) continue;
+            if (ChainSectionRenderer.isSectionBuffered(link)) continue;
+            if (!(link.secondary instanceof PlayerEntity) && !link.secondary.shouldRender(x, y, z)) continue;
+            if (linkBounds.set(link).isVisible(frustum)) return true;
+            culled++;
         }
-        return super.shouldRender(entity, frustum, x, y, z);
+        // When the knot is rendered its links are tested again, so they are only counted here when it is not
+        stats.countCulledLinks(culled);
+        return false;
     }
 
     @Override
@@ -85,24 +132,35 @@ public class ChainKnotEntityRenderer extends EntityRenderer<ChainKnotEntity> {
         // Render the knot
         if (chainKnotEntity.shouldRenderKnot()) {
             matrices.push();
-            Vec3d leashOffset = chainKnotEntity.getLeashPos(tickDelta).subtract(chainKnotEntity.getLerpedPos(tickDelta));
+            Vec3d leashOffset = chainKnotEntity.getLeashOffset();
             matrices.translate(leashOffset.x, leashOffset.y + 6.5 / 16f, leashOffset.z);
             // The model is 6 px wide, but it should be rendered at 5px
             matrices.scale(5 / 6f, 1, 5 / 6f);
-            VertexConsumer vertexConsumer = vertexConsumers.getBuffer(this.model.getLayer(getKnotTexture(chainKnotEntity.getChainItemSource())));
+            VertexConsumer vertexConsumer = vertexConsumers.getBuffer(textureCache.get(chainKnotEntity.getChainItemSource()).knotLayer());
             this.model.render(matrices, vertexConsumer, light, OverlayTexture.DEFAULT_UV, 1.0F, 1.0F, 1.0F, 1.0F);
             matrices.pop();
         }
 
         // Render the links
         List<ChainLink> links = chainKnotEntity.getLinks();
-        for (ChainLink link : links) {
+        linkLayer = null;
+        for (int i = 0; i < links.size(); i++) {
+            ChainLink link = links.get(i);
             if (link.primary != chainKnotEntity || link.isDead()) continue;
-            this.renderChainLink(link, tickDelta, matrices, vertexConsumers);
+            // Static links are part of the section buffers
+            if (ChainSectionRenderer.isSectionBuffered(link)) continue;
+            if (frustum != null && !chainKnotEntity.ignoreCameraFrustum && !linkBounds.set(link).isVisible(frustum)) {
+                stats.countCulledLinks(1);
+                continue;
+            }
+            this.renderChainLink(link, tickDelta, matrices, vertexConsumers, selectLod(link));
+            stats.countLink(link.secondary instanceof AbstractDecorationEntity);
             if (ConnectibleChains.runtimeConfig.doDebugDraw()) {
-                this.drawDebugVector(matrices, chainKnotEntity, link.secondary, vertexConsumers.getBuffer(RenderLayer.LINES));
+                this.drawDebugVector(matrices, chainKnotEntity, link.secondary, getLinkBuffer(vertexConsumers, RenderLayer.getLines()));
             }
         }
+        linkLayer = null;
+        linkBuffer = null;
 
         if (ConnectibleChains.runtimeConfig.doDebugDraw()) {
             matrices.push();
@@ -120,93 +178,181 @@ public class ChainKnotEntityRenderer extends EntityRenderer<ChainKnotEntity> {
         super.render(chainKnotEntity, yaw, tickDelta, matrices, vertexConsumers, light);
     }
 
-    private Identifier getKnotTexture(Item item) {
-        Identifier id = Registries.ITEM.getId(item);
-        if (id.getNamespace().equals("mythicmetals_decorations"))
-            return new Identifier(id.getNamespace(), "textures/item/chain/" + id.getPath() + ".png");
-            
-        return new Identifier(id.getNamespace(), "textures/item/" + id.getPath() + ".png");
+    RenderLayer getChainLayer(Item item) {
+        return textureCache.get(item).chainLayer();
+    }
+
+    /**
+     * The buffer is only requested again when the layer changes, so links of the same knot don't look up the layer for every link.
+     * Chain links use a triangle list layer, which the immediate vertex consumer provider batches
+     * across knots, see {@link ChainRenderLayer#getChainImmediate}.
+     */
+    private VertexConsumer getLinkBuffer(VertexConsumerProvider vertexConsumerProvider, RenderLayer layer) {
+        if (layer != linkLayer || linkBuffer == null) {
+            linkBuffer = vertexConsumerProvider.getBuffer(layer);
+            linkLayer = layer;
+        }
+        return linkBuffer;
+    }
+
+    /**
+     * Writes the geometry of a static link into {@code buffer}, this is used by the {@link ChainSectionRenderer}.
+     *
+     * @param link     A static link
+     * @param matrices A matrix stack that is translated to the position of the primary knot
+     * @param buffer   The target buffer
+     * @param lod      The level of detail of the geometry
+     */
+    void bakeLink(ChainLink link, MatrixStack matrices, VertexConsumer buffer, ChainRenderer.Lod lod) {
+        baking = true;
+        this.renderChainLink(link, 0, matrices, layer -> buffer, lod);
+        baking = false;
+        linkLayer = null;
+        linkBuffer = null;
+    }
+
+    /**
+     * Starts building the model of a static link in the background, so it is ready when the link is drawn.
+     * Dynamic links are not cached, so nothing has to be prepared for them.
+     *
+     * @param link A link that has just been created
+     */
+    public void prefetchLink(ChainLink link) {
+        Entity fromEntity = link.primary, toEntity = link.secondary;
+        if (!(toEntity instanceof AbstractDecorationEntity)) return;
+        Vec3d srcOffset = fromEntity.getLeashOffset(), dstOffset = toEntity.getLeashOffset();
+        setChainVec(fromEntity.getX() + srcOffset.x, fromEntity.getY() + srcOffset.y, fromEntity.getZ() + srcOffset.z,
+                toEntity.getX() + dstOffset.x, toEntity.getY() + dstOffset.y, toEntity.getZ() + dstOffset.z);
+        // The camera is not set up before the first frame
+        ChainRenderer.Lod lod = this.dispatcher.camera != null ? selectLod(link) : ChainRenderer.Lod.FULL;
+        bakeKey.set(fromEntity.getX(), fromEntity.getY(), fromEntity.getZ(), toEntity.getX(), toEntity.getY(), toEntity.getZ(), lod);
+        chainRenderer.requestModel(bakeKey, chainVec);
     }
 
-    private Identifier getChainTexture(Item item) {
-        Identifier id = Registries.ITEM.getId(item);
-        return new Identifier(id.getNamespace(), "textures/block/" + id.getPath() + ".png");
+    /**
+     * Selects the level of detail by the distance between the camera and the middle of the link.
+     */
+    private ChainRenderer.Lod selectLod(ChainLink link) {
+        Vec3d cameraPos = this.dispatcher.camera.getPos();
+        double dX = (link.primary.getX() + link.secondary.getX()) / 2 - cameraPos.x;
+        double dY = (link.primary.getY() + link.secondary.getY()) / 2 - cameraPos.y;
+        double dZ = (link.primary.getZ() + link.secondary.getZ()) / 2 - cameraPos.z;
+        return ChainRenderer.Lod.select(dX * dX + dY * dY + dZ * dZ);
     }
 
     /**
      * If I am honest I do not really know what is happening here most of the time, most of the code was 'inspired' by
      * the {@link net.minecraft.client.render.entity.LeashKnotEntityRenderer}.
      * Many variables therefore have simple names. I tried my best to comment and explain what everything does.
+     * <p>
+     * This is called for every link in every frame, so it works on scratch objects instead of
+     * allocating vectors and pushing the matrix stack.
      *
      * @param link                   A link that provides the positions and type
      * @param tickDelta              Delta tick
      * @param matrices               The render matrix stack.
      * @param vertexConsumerProvider The VertexConsumerProvider, whatever it does.
+     * @param lod                    The level of detail of the chain geometry
      */
-    private void renderChainLink(ChainLink link, float tickDelta, MatrixStack matrices, VertexConsumerProvider vertexConsumerProvider) {
+    private void renderChainLink(ChainLink link, float tickDelta, MatrixStack matrices, VertexConsumerProvider vertexConsumerProvider, ChainRenderer.Lod lod) {
         ChainKnotEntity fromEntity = link.primary;
         Entity toEntity = link.secondary;
-        matrices.push();
 
         // Don't have to lerp knot position as it can't move
         // Also lerping the position of an entity that was just created
         // causes visual bugs because the position is lerped from 0/0/0.
-        Vec3d srcPos = fromEntity.getPos().add(fromEntity.getLeashOffset());
-        Vec3d dstPos;
+        Vec3d leashOffset = fromEntity.getLeashOffset();
+        double srcX = fromEntity.getX() + leashOffset.x;
+        double srcY = fromEntity.getY() + leashOffset.y;
+        double srcZ = fromEntity.getZ() + leashOffset.z;
+        double dstX, dstY, dstZ;
 
-        if (toEntity instanceof AbstractDecorationEntity) {
-            dstPos = toEntity.getPos().add(toEntity.getLeashOffset());
+        boolean isStatic = toEntity instanceof AbstractDecorationEntity;
+        if (isStatic) {
+            Vec3d dstOffset = toEntity.getLeashOffset();
+            dstX = toEntity.getX() + dstOffset.x;
+            dstY = toEntity.getY() + dstOffset.y;
+            dstZ = toEntity.getZ() + dstOffset.z;
         } else {
-            dstPos = toEntity.getLeashPos(tickDelta);
+            Vec3d dstOffset = toEntity.getLeashOffset(tickDelta);
+            dstX = MathHelper.lerp(tickDelta, toEntity.prevX, toEntity.getX()) + dstOffset.x;
+            dstY = MathHelper.lerp(tickDelta, toEntity.prevY, toEntity.getY()) + dstOffset.y;
+            dstZ = MathHelper.lerp(tickDelta, toEntity.prevZ, toEntity.getZ()) + dstOffset.z;
         }
 
-        // The leash pos offset
-        Vec3d leashOffset = fromEntity.getLeashOffset();
-        matrices.translate(leashOffset.x, leashOffset.y, leashOffset.z);
-
-        Item sourceItem = link.sourceItem;
-        // Some further performance improvements can be made here:
-        // Create a rendering layer that:
-        // - does not have normals
-        // - does not have an overlay
-        // - does not have vertex color
-        // - uses a tri strip instead of quads
-        RenderLayer entityCutout = RenderLayer.getEntityCutoutNoCull(getChainTexture(sourceItem));
-        VertexConsumer buffer = vertexConsumerProvider.getBuffer(entityCutout);
-        if (ConnectibleChains.runtimeConfig.doDebugDraw()) {
-            buffer = vertexConsumerProvider.getBuffer(RenderLayer.getLines());
-        }
+        RenderLayer chainLayer = getChainLayer(link.sourceItem);
+        boolean debugDraw = ConnectibleChains.runtimeConfig.doDebugDraw();
 
-        Vec3d offset = Helper.getChainOffset(srcPos, dstPos);
-        matrices.translate(offset.getX(), 0, offset.getZ());
+        setChainVec(srcX, srcY, srcZ, dstX, dstY, dstZ);
+        float offsetX = chainOffsetX, offsetZ = chainOffsetZ;
 
         // Now we gather light information for the chain. Since the chain is lighter if there is more light.
-        BlockPos blockPosOfStart = BlockPos.ofFloored(fromEntity.getCameraPosVec(tickDelta));
-        BlockPos blockPosOfEnd = BlockPos.ofFloored(toEntity.getCameraPosVec(tickDelta));
-        int blockLightLevelOfStart = fromEntity.getWorld().getLightLevel(LightType.BLOCK, blockPosOfStart);
-        int blockLightLevelOfEnd = toEntity.getWorld().getLightLevel(LightType.BLOCK, blockPosOfEnd);
-        int skylightLevelOfStart = fromEntity.getWorld().getLightLevel(LightType.SKY, blockPosOfStart);
-        int skylightLevelOfEnd = fromEntity.getWorld().getLightLevel(LightType.SKY, blockPosOfEnd);
-
-        Vec3d startPos = srcPos.add(offset.getX(), 0, offset.getZ());
-        Vec3d endPos = dstPos.add(-offset.getX(), 0, -offset.getZ());
-        Vector3f chainVec = new Vector3f((float) (endPos.x - startPos.x), (float) (endPos.y - startPos.y), (float) (endPos.z - startPos.z));
+        // The light is cached by the link and only sampled again when it could have changed.
+        LinkRenderData renderData = link.getRenderData();
+        long lightStartPos = BlockPos.asLong(MathHelper.floor(fromEntity.getX()),
+                MathHelper.floor(fromEntity.getY() + fromEntity.getStandingEyeHeight()),
+                MathHelper.floor(fromEntity.getZ()));
+        long lightEndPos = BlockPos.asLong(MathHelper.floor(MathHelper.lerp(tickDelta, toEntity.prevX, toEntity.getX())),
+                MathHelper.floor(MathHelper.lerp(tickDelta, toEntity.prevY, toEntity.getY()) + toEntity.getStandingEyeHeight()),
+                MathHelper.floor(MathHelper.lerp(tickDelta, toEntity.prevZ, toEntity.getZ())));
+        int light = renderData.getLight(fromEntity.getWorld(), lightStartPos, toEntity.getWorld(), lightEndPos);
 
         float angleY = -(float) Math.atan2(chainVec.z(), chainVec.x());
 
-        matrices.multiply(new Quaternionf().rotateXYZ(0, angleY, 0));
+        // The leash pos offset and the chain offset
+        linkPositionMatrix.set(matrices.peek().getPositionMatrix())
+                .translate((float) leashOffset.x + offsetX, (float) leashOffset.y, (float) leashOffset.z + offsetZ)
+                .rotateY(angleY);
 
-        if (toEntity instanceof AbstractDecorationEntity) {
-            ChainRenderer.BakeKey key = new ChainRenderer.BakeKey(fromEntity.getPos(), toEntity.getPos());
-            chainRenderer.renderBaked(buffer, matrices, key, chainVec, blockLightLevelOfStart, blockLightLevelOfEnd, skylightLevelOfStart, skylightLevelOfEnd);
-        } else {
-            chainRenderer.render(buffer, matrices, chainVec, blockLightLevelOfStart, blockLightLevelOfEnd, skylightLevelOfStart, skylightLevelOfEnd);
+        if (isStatic && ChainInstanceRenderer.isActive()) {
+            // Links with the same geometry are drawn together after all entities
+            bakeKey.set(fromEntity.getX(), fromEntity.getY(), fromEntity.getZ(), toEntity.getX(), toEntity.getY(), toEntity.getZ(), lod);
+            ChainModel model = chainRenderer.getBakedModel(bakeKey, chainVec, null);
+            Vec3d cameraPos = this.dispatcher.camera.getPos();
+            instanceRenderer.add(textureCache.get(link.sourceItem).instancedChainLayer(), model,
+                    (float) (srcX + offsetX - cameraPos.x), (float) (srcY - cameraPos.y), (float) (srcZ + offsetZ - cameraPos.z),
+                    angleY, light);
+            stats.addVertices(model.vertexCount());
+            return;
         }
 
-        matrices.pop();
-    }
+        if (isStatic && !debugDraw && ConnectibleChains.runtimeConfig.getStaticChainRendering() == ModConfig.StaticChainRendering.LINK_BUFFER) {
+            // Static links keep their geometry on the GPU, so only a draw call is issued
+            bakeKey.set(fromEntity.getX(), fromEntity.getY(), fromEntity.getZ(), toEntity.getX(), toEntity.getY(), toEntity.getZ(), lod);
+            ChainModel model = chainRenderer.getBakedModel(bakeKey, chainVec, renderData.getLastModel());
+            renderData.drawBuffered(chainLayer, model, linkPositionMatrix, light);
+            stats.addVertices(model.vertexCount());
+            return;
+        }
 
+        if (debugDraw) {
+            linkNormalMatrix.set(matrices.peek().getNormalMatrix()).rotateY(angleY);
+            chainRenderer.renderDebug(getLinkBuffer(vertexConsumerProvider, RenderLayer.getLines()), linkPositionMatrix, linkNormalMatrix, chainVec);
+            return;
+        }
 
+        // Section buffers are drawn as a strip, the immediate buffers as separate triangles so they are batched across knots
+        VertexConsumer buffer = getLinkBuffer(vertexConsumerProvider, baking ? chainLayer : textureCache.get(link.sourceItem).immediateChainLayer());
+        if (isStatic) {
+            bakeKey.set(fromEntity.getX(), fromEntity.getY(), fromEntity.getZ(), toEntity.getX(), toEntity.getY(), toEntity.getZ(), lod);
+            chainRenderer.renderBaked(buffer, linkPositionMatrix, bakeKey, chainVec, renderData, light, !baking);
+        } else {
+            chainRenderer.render(buffer, linkPositionMatrix, chainVec, lod, renderData.getDynamicMesh(), light);
+        }
+    }
+
+    /**
+     * Sets {@link #chainVec}, {@link #chainOffsetX} and {@link #chainOffsetZ} for a chain between the two positions.
+     */
+    private void setChainVec(double srcX, double srcY, double srcZ, double dstX, double dstY, double dstZ) {
+        // The x/z offset from the center of the fence to where the chain starts, see Helper.getChainOffset
+        float offsetX = (float) (dstX - srcX), offsetZ = (float) (dstZ - srcZ);
+        // When the chain is vertical this is NaN, ChainRenderer relies on that.
+        float offsetScale = 2 / 16f / (float) Math.sqrt(offsetX * offsetX + offsetZ * offsetZ);
+        chainOffsetX = offsetX * offsetScale;
+        chainOffsetZ = offsetZ * offsetScale;
+        chainVec.set((float) (dstX - srcX) - 2 * chainOffsetX, (float) (dstY - srcY), (float) (dstZ - srcZ) - 2 * chainOffsetZ);
+    }
 
     /**
      * Draws a line fromEntity - toEntity, from green to red.
@@ -226,7 +372,7 @@ public class ChainKnotEntityRenderer extends EntityRenderer<ChainKnotEntity> {
 
     @Override
     public Identifier getTexture(ChainKnotEntity entity) {
-        return getKnotTexture(entity.getChainItemSource());
+        return textureCache.get(entity.getChainItemSource()).knotTexture();
     }
 
 
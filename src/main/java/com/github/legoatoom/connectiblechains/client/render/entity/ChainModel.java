@@ -15,68 +15,303 @@
 package com.github.legoatoom.connectiblechains.client.render.entity;
 
 import com.github.legoatoom.connectiblechains.ConnectibleChains;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import net.minecraft.client.render.BufferBuilder;
 import net.minecraft.client.render.LightmapTextureManager;
-import net.minecraft.client.render.OverlayTexture;
 import net.minecraft.client.render.VertexConsumer;
-import net.minecraft.client.util.math.MatrixStack;
 import net.minecraft.util.math.MathHelper;
+import org.jetbrains.annotations.Nullable;
 import org.joml.Matrix3f;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
-
-import java.util.ArrayList;
-import java.util.List;
+import org.lwjgl.system.MemoryUtil;
 
 /**
  * The geometry is baked (converted to an efficient format) into vertex and uv arrays.
  * This prevents having to recalculate the model every frame.
  */
 public record ChainModel(float[] vertices, float[] uvs) {
+    /**
+     * The position along the chain is stored in the light coordinate of instanced meshes with this scale.
+     */
+    public static final int INSTANCE_LIGHT_SCALE = 32767;
+    /**
+     * The size of a vertex in the {@link ChainRenderLayer#CHAIN_FORMAT chain format}:
+     * three position floats, two texture floats and two light shorts.
+     */
+    private static final int VERTEX_SIZE = 24;
 
     public static Builder builder(int initialCapacity) {
         return new Builder(initialCapacity);
     }
 
     /**
-     * Writes the model data to {@code buffer} and applies lighting.
+     * Writes the model data to {@code buffer}.
+     * The buffer is expected to use the {@link ChainRenderLayer#CHAIN_FORMAT chain format}.
      *
-     * @param buffer   The target buffer.
-     * @param matrices The transformation stack
-     * @param bLight0  Block-light at the start.
-     * @param bLight1  Block-light at the end.
-     * @param sLight0  Sky-light at the start.
-     * @param sLight1  Sky-light at the end.
+     * @param buffer         The target buffer.
+     * @param positionMatrix The chain transformation
+     * @param vertexLight    The packed light of every vertex, see {@link #computeVertexLight(int, int[])}
      */
-    public void render(VertexConsumer buffer, MatrixStack matrices, int bLight0, int bLight1, int sLight0, int sLight1) {
-        Matrix4f modelMatrix = matrices.peek().getPositionMatrix();
-        Matrix3f normalMatrix = matrices.peek().getNormalMatrix();
+    public void render(VertexConsumer buffer, Matrix4f positionMatrix, int[] vertexLight) {
+        render(buffer, positionMatrix, vertices, uvs, vertices.length / 3, vertexLight);
+    }
+
+    /**
+     * Writes the model data to {@code buffer} as separate triangles instead of a triangle strip.
+     * The buffer is expected to use the {@link ChainRenderLayer#CHAIN_FORMAT chain format}
+     * and the {@link ChainRenderLayer#getChainImmediate(net.minecraft.util.Identifier) immediate chain layer}.
+     *
+     * @param buffer         The target buffer.
+     * @param positionMatrix The chain transformation
+     * @param vertexLight    The packed light of every vertex, see {@link #computeVertexLight(int, int[])}
+     * @see #renderTriangles(VertexConsumer, Matrix4f, float[], float[], int, int[])
+     */
+    public void renderTriangles(VertexConsumer buffer, Matrix4f positionMatrix, int[] vertexLight) {
+        renderTriangles(buffer, positionMatrix, vertices, uvs, vertices.length / 3, vertexLight);
+    }
+
+    /**
+     * @return The number of vertices, including the repeated ones at the start and end of every face
+     */
+    public int vertexCount() {
+        return vertices.length / 3;
+    }
+
+    /**
+     * Interpolates the light levels of the link ends along the chain.
+     * The result only depends on the model and the light levels, so it can be cached with the model.
+     *
+     * @param light  The light levels at both ends, packed by {@link LinkRenderData#packLight(int, int, int, int)}
+     * @param target An array for the result, a new one is allocated when it is null or too small
+     * @return The packed lightmap coordinates of every vertex
+     */
+    public int[] computeVertexLight(int light, @Nullable int[] target) {
         int count = vertices.length / 3;
+        if (target == null || target.length < count) target = new int[count];
+        computeVertexLight(uvs, count, light, target);
+        return target;
+    }
+
+    /**
+     * Writes the edges of the triangle strip to a {@link net.minecraft.client.render.RenderLayer#getLines() lines} buffer.
+     *
+     * @param buffer         The target buffer.
+     * @param positionMatrix The chain transformation
+     * @param normalMatrix   The normal transformation
+     */
+    public void renderDebug(VertexConsumer buffer, Matrix4f positionMatrix, Matrix3f normalMatrix) {
+        renderDebug(buffer, positionMatrix, normalMatrix, vertices, vertices.length / 3);
+    }
+
+    /**
+     * Computes the position along the chain from 0 to {@link #INSTANCE_LIGHT_SCALE} for every vertex.
+     * Instanced meshes store it instead of the light, the light of each instance is interpolated by the shader.
+     *
+     * @param target An array for the result, a new one is allocated when it is null or too small
+     * @return The light coordinate of every vertex
+     */
+    public int[] computeInstanceLight(@Nullable int[] target) {
+        int count = vertices.length / 3;
+        if (target == null || target.length < count) target = new int[count];
+        int faceCount = count / 2;
+        float length0 = uvs[(faceCount - 1) * 2 + 1], length1 = uvs[(count - 1) * 2 + 1];
+        for (int i = 0; i < count; i++) {
+            target[i] = Math.round(getLightFactor(uvs, i, faceCount, length0, length1) * INSTANCE_LIGHT_SCALE);
+        }
+        return target;
+    }
+
+    /**
+     * Writes the first {@code count} vertices of {@code vertices} and {@code uvs} to {@code buffer}.
+     * The transformation is done by hand because the matrix overloads of {@link VertexConsumer}
+     * allocate a new vector for every vertex.
+     * When possible the vertices are written in bulk, see {@link #renderBulk}.
+     */
+    private static void render(VertexConsumer buffer, Matrix4f m, float[] vertices, float[] uvs, int count, int[] vertexLight) {
+        if (buffer instanceof BufferBuilder builder && renderBulk(builder, m, vertices, uvs, count, vertexLight)) return;
+        for (int i = 0; i < count; i++) {
+            writeVertex(buffer, m, vertices, uvs, vertexLight, i);
+        }
+    }
+
+    /**
+     * Writes the triangles of the strip formed by the first {@code count} vertices as a triangle list.
+     * A strip layer is drawn by the immediate vertex consumer provider every time its buffer is requested,
+     * because strip vertices are shared. A triangle list can be batched with the links of all other knots.
+     * The degenerate triangles that connect the faces of the strip are skipped.
+     */
+    private static void renderTriangles(VertexConsumer buffer, Matrix4f m, float[] vertices, float[] uvs, int count, int[] vertexLight) {
+        if (buffer instanceof BufferBuilder builder && renderTrianglesBulk(builder, m, vertices, uvs, count, vertexLight)) return;
+        for (int i = 0; i + 2 < count; i++) {
+            if (isDegenerate(vertices, i)) continue;
+            writeVertex(buffer, m, vertices, uvs, vertexLight, i);
+            writeVertex(buffer, m, vertices, uvs, vertexLight, i + 1);
+            writeVertex(buffer, m, vertices, uvs, vertexLight, i + 2);
+        }
+    }
+
+    private static void writeVertex(VertexConsumer buffer, Matrix4f m, float[] vertices, float[] uvs, int[] vertexLight, int i) {
+        float x = vertices[i * 3], y = vertices[i * 3 + 1], z = vertices[i * 3 + 2];
+        buffer
+                .vertex(m.m00() * x + m.m10() * y + m.m20() * z + m.m30(),
+                        m.m01() * x + m.m11() * y + m.m21() * z + m.m31(),
+                        m.m02() * x + m.m12() * y + m.m22() * z + m.m32())
+                .texture(uvs[i * 2], uvs[i * 2 + 1])
+                .light(vertexLight[i])
+                .next();
+    }
+
+    /**
+     * @return true when two corners of the strip triangle starting at vertex {@code i} are at the same position
+     */
+    private static boolean isDegenerate(float[] vertices, int i) {
+        return samePosition(vertices, i, i + 1) || samePosition(vertices, i + 1, i + 2) || samePosition(vertices, i, i + 2);
+    }
+
+    private static boolean samePosition(float[] vertices, int a, int b) {
+        return vertices[a * 3] == vertices[b * 3] && vertices[a * 3 + 1] == vertices[b * 3 + 1] && vertices[a * 3 + 2] == vertices[b * 3 + 2];
+    }
+
+    /**
+     * Writes the vertices straight into the native memory of {@code builder}, instead of making a call
+     * for every element of every vertex. The space for all vertices is reserved at once.
+     * This is only possible when the builder is between two vertices of the {@link ChainRenderLayer#CHAIN_FORMAT chain format},
+     * other consumers like the debug lines use the regular path.
+     * Like {@link BufferBuilder#next()}, it leaves room for one more vertex behind the written ones.
+     *
+     * @return false when nothing was written because the builder is not in the expected state
+     */
+    private static boolean renderBulk(BufferBuilder builder, Matrix4f m, float[] vertices, float[] uvs, int count, int[] vertexLight) {
+        if (!builder.isBuilding() || builder.format != ChainRenderLayer.CHAIN_FORMAT || builder.currentElementId != 0) return false;
+
+        int size = count * VERTEX_SIZE;
+        // BufferBuilder always keeps room for one more vertex, next() grows the buffer after every vertex
+        builder.grow(size + VERTEX_SIZE);
+        long address = MemoryUtil.memAddress(builder.buffer, builder.elementOffset);
         for (int i = 0; i < count; i++) {
-            // divide by 2 because chain has 2 face sets
-            float f = (i % (count / 2f)) / (count / 2f);
-            int blockLight = (int) MathHelper.lerp(f, (float) bLight0, (float) bLight1);
-            int skyLight = (int) MathHelper.lerp(f, (float) sLight0, (float) sLight1);
-            int light = LightmapTextureManager.pack(blockLight, skyLight);
+            putVertex(address, m, vertices, uvs, vertexLight, i);
+            address += VERTEX_SIZE;
+        }
+        builder.elementOffset += size;
+        builder.vertexCount += count;
+        return true;
+    }
+
+    /**
+     * The triangle list version of {@link #renderBulk}, see {@link #renderTriangles(VertexConsumer, Matrix4f, float[], float[], int, int[])}.
+     *
+     * @return false when nothing was written because the builder is not in the expected state
+     */
+    private static boolean renderTrianglesBulk(BufferBuilder builder, Matrix4f m, float[] vertices, float[] uvs, int count, int[] vertexLight) {
+        if (!builder.isBuilding() || builder.format != ChainRenderLayer.CHAIN_FORMAT || builder.currentElementId != 0) return false;
+
+        int triangles = 0;
+        for (int i = 0; i + 2 < count; i++) {
+            if (!isDegenerate(vertices, i)) triangles++;
+        }
+        int size = triangles * 3 * VERTEX_SIZE;
+        // BufferBuilder always keeps room for one more vertex, next() grows the buffer after every vertex
+        builder.grow(size + VERTEX_SIZE);
+        long address = MemoryUtil.memAddress(builder.buffer, builder.elementOffset);
+        for (int i = 0; i + 2 < count; i++) {
+            if (isDegenerate(vertices, i)) continue;
+            putVertex(address, m, vertices, uvs, vertexLight, i);
+            putVertex(address + VERTEX_SIZE, m, vertices, uvs, vertexLight, i + 1);
+            putVertex(address + VERTEX_SIZE * 2, m, vertices, uvs, vertexLight, i + 2);
+            address += VERTEX_SIZE * 3;
+        }
+        builder.elementOffset += size;
+        builder.vertexCount += triangles * 3;
+        return true;
+    }
+
+    /**
+     * Writes vertex {@code i} in the {@link ChainRenderLayer#CHAIN_FORMAT chain format} to native memory.
+     */
+    private static void putVertex(long address, Matrix4f m, float[] vertices, float[] uvs, int[] vertexLight, int i) {
+        float x = vertices[i * 3], y = vertices[i * 3 + 1], z = vertices[i * 3 + 2];
+        int light = vertexLight[i];
+        MemoryUtil.memPutFloat(address, m.m00() * x + m.m10() * y + m.m20() * z + m.m30());
+        MemoryUtil.memPutFloat(address + 4, m.m01() * x + m.m11() * y + m.m21() * z + m.m31());
+        MemoryUtil.memPutFloat(address + 8, m.m02() * x + m.m12() * y + m.m22() * z + m.m32());
+        MemoryUtil.memPutFloat(address + 12, uvs[i * 2]);
+        MemoryUtil.memPutFloat(address + 16, uvs[i * 2 + 1]);
+        MemoryUtil.memPutShort(address + 20, (short) (light & 0xFFFF));
+        MemoryUtil.memPutShort(address + 22, (short) (light >> 16 & 0xFFFF));
+    }
+
+    private static void computeVertexLight(float[] uvs, int count, int light, int[] target) {
+        int blockLight0 = light & 0xF, blockLight1 = light >> 4 & 0xF;
+        int skyLight0 = light >> 8 & 0xF, skyLight1 = light >> 12 & 0xF;
+        // divide by 2 because chain has 2 face sets
+        int faceCount = count / 2;
+        // The v coordinate is the distance along the chain, segments can have different lengths
+        // so the light is interpolated by the distance instead of the vertex index.
+        float length0 = uvs[(faceCount - 1) * 2 + 1], length1 = uvs[(count - 1) * 2 + 1];
+        for (int i = 0; i < count; i++) {
+            float f = getLightFactor(uvs, i, faceCount, length0, length1);
+            int blockLight = (int) MathHelper.lerp(f, (float) blockLight0, (float) blockLight1);
+            int skyLight = (int) MathHelper.lerp(f, (float) skyLight0, (float) skyLight1);
+            target[i] = LightmapTextureManager.pack(blockLight, skyLight);
+        }
+    }
+
+    private static float getLightFactor(float[] uvs, int i, int faceCount, float length0, float length1) {
+        float length = i < faceCount ? length0 : length1;
+        return length > 0 ? uvs[i * 2 + 1] / length : 0;
+    }
+
+    private static void renderDebug(VertexConsumer buffer, Matrix4f m, Matrix3f n, float[] vertices, int count) {
+        for (int i = 1; i < count; i++) {
+            float x0 = vertices[i * 3 - 3], y0 = vertices[i * 3 - 2], z0 = vertices[i * 3 - 1];
+            float x1 = vertices[i * 3], y1 = vertices[i * 3 + 1], z1 = vertices[i * 3 + 2];
+            float dx = x1 - x0, dy = y1 - y0, dz = z1 - z0;
+            // Skip the degenerate triangles that connect the faces
+            if (dx == 0 && dy == 0 && dz == 0) continue;
+
+            float nx = n.m00() * dx + n.m10() * dy + n.m20() * dz;
+            float ny = n.m01() * dx + n.m11() * dy + n.m21() * dz;
+            float nz = n.m02() * dx + n.m12() * dy + n.m22() * dz;
+            float nInvLength = MathHelper.fastInverseSqrt(nx * nx + ny * ny + nz * nz);
+            nx *= nInvLength;
+            ny *= nInvLength;
+            nz *= nInvLength;
+
             buffer
-                    .vertex(modelMatrix, vertices[i * 3], vertices[i * 3 + 1], vertices[i * 3 + 2])
+                    .vertex(m.m00() * x0 + m.m10() * y0 + m.m20() * z0 + m.m30(),
+                            m.m01() * x0 + m.m11() * y0 + m.m21() * z0 + m.m31(),
+                            m.m02() * x0 + m.m12() * y0 + m.m22() * z0 + m.m32())
                     .color(255, 255, 255, 255)
-                    .texture(uvs[i * 2], uvs[i * 2 + 1])
-                    .overlay(OverlayTexture.DEFAULT_UV)
-                    .light(light)
-                    // trial and error magic values that change the overall brightness of the chain
-                    .normal(normalMatrix, 1, 0.35f, 0)
+                    .normal(nx, ny, nz)
+                    .next();
+            buffer
+                    .vertex(m.m00() * x1 + m.m10() * y1 + m.m20() * z1 + m.m30(),
+                            m.m01() * x1 + m.m11() * y1 + m.m21() * z1 + m.m31(),
+                            m.m02() * x1 + m.m12() * y1 + m.m22() * z1 + m.m32())
+                    .color(255, 255, 255, 255)
+                    .normal(nx, ny, nz)
                     .next();
         }
     }
 
+    /**
+     * Collects the geometry of a chain in primitive arrays.
+     * A builder can be {@link #clear() cleared} and reused, so it only allocates when it has to grow.
+     */
     public static class Builder {
-        private final List<Float> vertices;
-        private final List<Float> uvs;
+        private final FloatArrayList vertices;
+        private final FloatArrayList uvs;
+        private int[] vertexLight = new int[0];
+        /**
+         * The light levels that {@link #vertexLight} was computed for, it is reset when the geometry changes.
+         */
+        private int vertexLightLevels = -1;
         private int size;
 
         public Builder(int initialCapacity) {
-            vertices = new ArrayList<>(initialCapacity * 3);
-            uvs = new ArrayList<>(initialCapacity * 2);
+            vertices = new FloatArrayList(initialCapacity * 3);
+            uvs = new FloatArrayList(initialCapacity * 2);
         }
 
         public Builder vertex(Vector3f v) {
@@ -96,22 +331,51 @@ public record ChainModel(float[] vertices, float[] uvs) {
             size++;
         }
 
-        public ChainModel build() {
-            if (vertices.size() != size * 3) ConnectibleChains.LOGGER.error("Wrong count of vertices");
-            if (uvs.size() != size * 2) ConnectibleChains.LOGGER.error("Wrong count of uvs");
-
-            return new ChainModel(toFloatArray(vertices), toFloatArray(uvs));
+        /**
+         * Removes all vertices but keeps the allocated memory.
+         */
+        public Builder clear() {
+            vertices.clear();
+            uvs.clear();
+            size = 0;
+            vertexLightLevels = -1;
+            return this;
         }
 
-        private float[] toFloatArray(List<Float> floats) {
-            float[] array = new float[floats.size()];
-            int i = 0;
+        /**
+         * @return The number of vertices that were added since the last {@link #clear()}
+         */
+        public int vertexCount() {
+            return size;
+        }
 
-            for (float f : floats) {
-                array[i++] = f;
+        /**
+         * Writes the collected geometry directly to {@code buffer} as separate triangles without creating a model.
+         *
+         * @param light The light levels at both ends, packed by {@link LinkRenderData#packLight(int, int, int, int)}
+         * @see ChainModel#renderTriangles(VertexConsumer, Matrix4f, int[])
+         */
+        public void renderTriangles(VertexConsumer buffer, Matrix4f positionMatrix, int light) {
+            if (vertexLightLevels != light) {
+                if (vertexLight.length < size) vertexLight = new int[size];
+                ChainModel.computeVertexLight(uvs.elements(), size, light, vertexLight);
+                vertexLightLevels = light;
             }
+            ChainModel.renderTriangles(buffer, positionMatrix, vertices.elements(), uvs.elements(), size, vertexLight);
+        }
+
+        /**
+         * @see ChainModel#renderDebug(VertexConsumer, Matrix4f, Matrix3f)
+         */
+        public void renderDebug(VertexConsumer buffer, Matrix4f positionMatrix, Matrix3f normalMatrix) {
+            ChainModel.renderDebug(buffer, positionMatrix, normalMatrix, vertices.elements(), size);
+        }
+
+        public ChainModel build() {
+            if (vertices.size() != size * 3) ConnectibleChains.LOGGER.error("Wrong count of vertices");
+            if (uvs.size() != size * 2) ConnectibleChains.LOGGER.error("Wrong count of uvs");
 
-            return array;
+            return new ChainModel(vertices.toFloatArray(), uvs.toFloatArray());
         }
     }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.client.render.entity;
+
+import com.github.legoatoom.connectiblechains.util.Helper;
+import com.google.common.collect.ImmutableMap;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.render.RenderLayer;
+import net.minecraft.client.render.VertexFormat;
+import net.minecraft.client.render.VertexFormatElement;
+import net.minecraft.client.render.VertexFormats;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.Util;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Function;
+
+/**
+ * The render layer and vertex format used for chains.
+ * Every chain vertex has the same color, overlay and normal, so the format only contains
+ * the position, the texture coordinate and the packed light.
+ * The geometry is drawn as a triangle strip, see {@link ChainRenderer}.
+ * Links that are written to the immediate entity buffers use a triangle list instead,
+ * because the immediate vertex consumer provider draws a strip layer every time its buffer is requested.
+ * <p>
+ * This class only extends {@link RenderLayer} to get access to the render phases.
+ */
+@Environment(EnvType.CLIENT)
+public class ChainRenderLayer extends RenderLayer {
+    public static final VertexFormat CHAIN_FORMAT = new VertexFormat(ImmutableMap.<String, VertexFormatElement>builder()
+            .put("Position", VertexFormats.POSITION_ELEMENT)
+            .put("UV0", VertexFormats.TEXTURE_ELEMENT)
+            .put("UV2", VertexFormats.LIGHT_ELEMENT)
+            .build());
+    public static final Identifier CHAIN_SHADER_ID = Helper.identifier("chain");
+    public static final Identifier CHAIN_INSTANCED_SHADER_ID = Helper.identifier("chain_instanced");
+
+    /**
+     * Set by the core shader registration once the resources are (re-)loaded.
+     */
+    @Nullable
+    private static net.minecraft.client.gl.ShaderProgram chainShader;
+    private static final ShaderProgram CHAIN_PROGRAM = new ShaderProgram(ChainRenderLayer::getChainShader);
+    private static final Function<Identifier, RenderLayer> CHAIN = Util.memoize(texture -> of(
+            "connectiblechains_chain", CHAIN_FORMAT, VertexFormat.DrawMode.TRIANGLE_STRIP, 256, true, false,
+            MultiPhaseParameters.builder()
+                    .program(CHAIN_PROGRAM)
+                    .texture(new Texture(texture, false, false))
+                    .transparency(NO_TRANSPARENCY)
+                    .cull(DISABLE_CULLING)
+                    .lightmap(ENABLE_LIGHTMAP)
+                    .build(true)));
+    private static final Function<Identifier, RenderLayer> CHAIN_IMMEDIATE = Util.memoize(texture -> of(
+            "connectiblechains_chain_immediate", CHAIN_FORMAT, VertexFormat.DrawMode.TRIANGLES, 256, true, false,
+            MultiPhaseParameters.builder()
+                    .program(CHAIN_PROGRAM)
+                    .texture(new Texture(texture, false, false))
+                    .transparency(NO_TRANSPARENCY)
+                    .cull(DISABLE_CULLING)
+                    .lightmap(ENABLE_LIGHTMAP)
+                    .build(true)));
+    @Nullable
+    private static net.minecraft.client.gl.ShaderProgram chainInstancedShader;
+    private static final ShaderProgram CHAIN_INSTANCED_PROGRAM = new ShaderProgram(ChainRenderLayer::getChainInstancedShader);
+    private static final Function<Identifier, RenderLayer> CHAIN_INSTANCED = Util.memoize(texture -> of(
+            "connectiblechains_chain_instanced", CHAIN_FORMAT, VertexFormat.DrawMode.TRIANGLE_STRIP, 256, false, false,
+            MultiPhaseParameters.builder()
+                    .program(CHAIN_INSTANCED_PROGRAM)
+                    .texture(new Texture(texture, false, false))
+                    .transparency(NO_TRANSPARENCY)
+                    .cull(DISABLE_CULLING)
+                    .lightmap(ENABLE_LIGHTMAP)
+                    .build(false)));
+
+    private ChainRenderLayer(String name, VertexFormat vertexFormat, VertexFormat.DrawMode drawMode, int expectedBufferSize,
+                             boolean hasCrumbling, boolean translucent, Runnable startAction, Runnable endAction) {
+        super(name, vertexFormat, drawMode, expectedBufferSize, hasCrumbling, translucent, startAction, endAction);
+    }
+
+    /**
+     * @param texture The chain texture
+     * @return The cutout, no-cull chain layer for {@code texture}
+     */
+    public static RenderLayer getChain(Identifier texture) {
+        return CHAIN.apply(texture);
+    }
+
+    /**
+     * Same as {@link #getChain(Identifier)} but drawn as separate triangles, so the links of all knots
+     * that use this layer are batched into one draw call by the immediate vertex consumer provider.
+     *
+     * @param texture The chain texture
+     * @return The cutout, no-cull chain layer for {@code texture} that is used with the immediate entity buffers
+     * @see ChainModel#renderTriangles(net.minecraft.client.render.VertexConsumer, org.joml.Matrix4f, int[])
+     */
+    public static RenderLayer getChainImmediate(Identifier texture) {
+        return CHAIN_IMMEDIATE.apply(texture);
+    }
+
+    /**
+     * The layer is only used to set up the render state for {@link ChainInstanceRenderer}, nothing is written to its buffer.
+     *
+     * @param texture The chain texture
+     * @return The cutout, no-cull layer of instanced chains for {@code texture}
+     */
+    public static RenderLayer getChainInstanced(Identifier texture) {
+        return CHAIN_INSTANCED.apply(texture);
+    }
+
+    @Nullable
+    public static net.minecraft.client.gl.ShaderProgram getChainShader() {
+        return chainShader;
+    }
+
+    public static void setChainShader(net.minecraft.client.gl.ShaderProgram shader) {
+        chainShader = shader;
+    }
+
+    @Nullable
+    public static net.minecraft.client.gl.ShaderProgram getChainInstancedShader() {
+        return chainInstancedShader;
+    }
+
+    public static void setChainInstancedShader(net.minecraft.client.gl.ShaderProgram shader) {
+        chainInstancedShader = shader;
+    }
+}
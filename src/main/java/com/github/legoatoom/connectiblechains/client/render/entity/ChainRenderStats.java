@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.client.render.entity;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what the chain renderers did in a frame, so performance problems can be narrowed down on any machine.
+ * The counters of the current frame are moved to the last frame in {@link #endFrame}, the F3 screen shows the last frame.
+ *
+ * @see com.github.legoatoom.connectiblechains.config.ModConfig#doShowRenderStats()
+ */
+@Environment(EnvType.CLIENT)
+public class ChainRenderStats {
+    private int staticLinks, dynamicLinks, sectionLinks, culledLinks;
+    private long vertices;
+    /**
+     * Models are also built on the build threads, so this is updated concurrently.
+     */
+    private final LongAdder buildNanos = new LongAdder();
+    private final LongAdder builds = new LongAdder();
+    private long prevCacheHits, prevCacheMisses, prevCacheEvictions;
+
+    private Frame lastFrame = new Frame(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+    /**
+     * Counts a link that was drawn by the entity renderer.
+     */
+    void countLink(boolean isStatic) {
+        if (isStatic) staticLinks++;
+        else dynamicLinks++;
+    }
+
+    /**
+     * Counts links that were drawn as part of a section buffer.
+     */
+    void countSectionLinks(int count) {
+        sectionLinks += count;
+    }
+
+    /**
+     * Counts links that were not drawn because they are outside the frustum.
+     */
+    void countCulledLinks(int count) {
+        culledLinks += count;
+    }
+
+    /**
+     * Counts vertices that were written to a buffer or drawn from a vertex buffer.
+     */
+    void addVertices(int count) {
+        vertices += count;
+    }
+
+    /**
+     * May be called from any thread.
+     */
+    void addBuildTime(long nanos) {
+        buildNanos.add(nanos);
+        builds.increment();
+    }
+
+    /**
+     * Moves the counters of the current frame to the last frame.
+     * Must be called once per frame on the render thread.
+     *
+     * @param chainRenderer The renderer that owns the model cache
+     */
+    public void endFrame(ChainRenderer chainRenderer) {
+        long cacheHits = chainRenderer.getCacheHits();
+        long cacheMisses = chainRenderer.getCacheMisses();
+        long cacheEvictions = chainRenderer.getCacheEvictions();
+        lastFrame = new Frame(staticLinks, dynamicLinks, sectionLinks, culledLinks, vertices,
+                cacheHits - prevCacheHits, cacheMisses - prevCacheMisses, cacheEvictions - prevCacheEvictions,
+                chainRenderer.getCachedModelCount(), chainRenderer.getPendingBuildCount(),
+                builds.sumThenReset(), buildNanos.sumThenReset(), chainRenderer.getDynamicRebuilds());
+        prevCacheHits = cacheHits;
+        prevCacheMisses = cacheMisses;
+        prevCacheEvictions = cacheEvictions;
+        staticLinks = 0;
+        dynamicLinks = 0;
+        sectionLinks = 0;
+        culledLinks = 0;
+        vertices = 0;
+    }
+
+    /**
+     * Adds the statistics of the last frame to the left side of the F3 screen.
+     */
+    public void appendDebugText(List<String> lines) {
+        Frame frame = lastFrame;
+        lines.add("");
+        lines.add(String.format(Locale.ROOT, "[Chains] Links: %d static, %d dynamic, %d in sections, %d culled",
+                frame.staticLinks, frame.dynamicLinks, frame.sectionLinks, frame.culledLinks));
+        lines.add(String.format(Locale.ROOT, "[Chains] Vertices: %d, Meshes: %d hits, %d misses, %d evicted, %d cached, %d pending",
+                frame.vertices, frame.cacheHits, frame.cacheMisses, frame.cacheEvictions, frame.cachedModels, frame.pendingBuilds));
+        lines.add(String.format(Locale.ROOT, "[Chains] Builds: %d in %.2f ms, Dynamic rebuilds: %d total",
+                frame.builds, frame.buildNanos / 1_000_000D, frame.dynamicRebuilds));
+    }
+
+    private record Frame(int staticLinks, int dynamicLinks, int sectionLinks, int culledLinks, long vertices,
+                         long cacheHits, long cacheMisses, long cacheEvictions, int cachedModels, int pendingBuilds,
+                         long builds, long buildNanos, long dynamicRebuilds) {
+    }
+}
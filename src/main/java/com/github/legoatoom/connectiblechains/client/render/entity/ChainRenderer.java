@@ -15,16 +15,23 @@
 package com.github.legoatoom.connectiblechains.client.render.entity;
 
 import com.github.legoatoom.connectiblechains.ConnectibleChains;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
-import net.fabricmc.loader.api.FabricLoader;
+import com.github.legoatoom.connectiblechains.util.CatenaryCurve;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import net.minecraft.client.render.VertexConsumer;
-import net.minecraft.client.util.math.MatrixStack;
-import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.math.MathHelper;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
 import org.joml.Quaternionf;
 import org.joml.Vector3f;
 
-import static com.github.legoatoom.connectiblechains.util.Helper.drip2;
-import static com.github.legoatoom.connectiblechains.util.Helper.drip2prime;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 
 public class ChainRenderer {
     /**
@@ -36,207 +43,403 @@ public class ChainRenderer {
      * This is to prevent extreme lag and the possibility of an infinite loop.
      */
     private static final int MAX_SEGMENTS = 2048;
+    /**
+     * The longest segment that adaptive segmentation may create, so the light still changes gradually.
+     */
+    private static final float MAX_ADAPTIVE_SEGMENT_LENGTH = 2f;
+    /**
+     * How many models the cache can hold before the least recently used one is evicted.
+     */
+    private static final int MAX_CACHED_MODELS = 4096;
+    /**
+     * How many models can be queued for the build threads, further requests are made again in a later frame.
+     */
+    private static final int MAX_PENDING_BUILDS = 1024;
+    private static final int BUILD_THREADS = MathHelper.clamp(Runtime.getRuntime().availableProcessors() / 4, 1, 2);
+    /**
+     * Builds the cached models off the render thread, so joining a world with many chains does not stall a frame.
+     * The pool is shared by all renderers, because the entity renderers are recreated when resources are reloaded.
+     */
+    private static final ExecutorService BUILD_EXECUTOR = Executors.newFixedThreadPool(BUILD_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("Chain Model Builder #%d").setDaemon(true).build());
     /**
      * The geometry of a chain only depends on the vector from the source to the destination.
      * The rotation/direction and translation of the chain do not matter as they are accounted for during rendering.
+     * Entries are kept in access order, the first entry is the least recently used one.
+     */
+    private final Object2ObjectLinkedOpenHashMap<BakeKey, ChainModel> models = new Object2ObjectLinkedOpenHashMap<>(256);
+    /**
+     * Every thread that builds models gets its own builder and scratch vectors,
+     * so building a model does not allocate once the builder has grown large enough.
+     */
+    private static final ThreadLocal<BuildContext> BUILD_CONTEXT = ThreadLocal.withInitial(BuildContext::new);
+    /**
+     * The keys of the models that are being built, they are only accessed on the render thread.
+     */
+    private final ObjectOpenHashSet<BakeKey> pendingBuilds = new ObjectOpenHashSet<>();
+    /**
+     * Models that the build threads have finished, they are moved to the cache by {@link #collectBuiltModels()}.
      */
-    @Deprecated
-    private final Object2ObjectOpenHashMap<BakeKey, ChainModel> models = new Object2ObjectOpenHashMap<>(256);
+    private final ConcurrentLinkedQueue<BuiltModel> builtModels = new ConcurrentLinkedQueue<>();
+    /**
+     * Incremented by {@link #purge()}, models that were built with an older configuration are dropped.
+     */
+    private int generation = 0;
+    private final BakeKey placeholderKey = new BakeKey();
+    private final ChainRenderStats stats;
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+    private long cacheEvictions = 0;
+    private long builtModelCount = 0;
+    private long placeholderCount = 0;
+    private long dynamicRebuilds = 0;
+
+    public ChainRenderer(ChainRenderStats stats) {
+        this.stats = stats;
+    }
 
     /**
      * Renders the cached model for the given {@code key}.
-     * If a model is not present for the given key it will be built.
+     * If a model is not present for the given key it will be built, see {@link #getBakedModel}.
+     * The key is only copied when a new model is added, so it may be reused by the caller.
      *
-     * @param buffer      The target vertex buffer
-     * @param matrices    The chain transformation
-     * @param key         The cache key for the {@code chainVec}
-     * @param chainVec    The vector from the start position to the end position
-     * @param blockLight0 The block light level at the start
-     * @param blockLight1 The block light level at the end
-     * @param skyLight0   The sky light level at the start
-     * @param skyLight1   The sky light level at the end
-     */
-    public void renderBaked(VertexConsumer buffer, MatrixStack matrices, BakeKey key, Vector3f chainVec, int blockLight0, int blockLight1, int skyLight0, int skyLight1) {
-        ChainModel model;
-        if (models.containsKey(key) && false) {
-            model = models.get(key);
-        } else {
-            model = buildModel(chainVec);
-            models.put(key, model);
-            if (FabricLoader.getInstance().isDevelopmentEnvironment() && models.size() > 10000) {
-                ConnectibleChains.LOGGER.error("Chain model leak found!");
-            }
-        }
-        model.render(buffer, matrices, blockLight0, blockLight1, skyLight0, skyLight1);
+     * @param buffer         The target vertex buffer
+     * @param positionMatrix The chain transformation
+     * @param key            The cache key for the {@code chainVec}
+     * @param chainVec       The vector from the start position to the end position
+     * @param renderData     The render data of the link, it caches the per-vertex light of the model
+     * @param light          The light levels at both ends, see {@link LinkRenderData#getLight}
+     * @param triangles      Whether {@code buffer} is drawn as separate triangles instead of a triangle strip,
+     *                       see {@link ChainRenderLayer#getChainImmediate(net.minecraft.util.Identifier)}
+     */
+    public void renderBaked(VertexConsumer buffer, Matrix4f positionMatrix, BakeKey key, Vector3f chainVec, LinkRenderData renderData, int light, boolean triangles) {
+        ChainModel model = getBakedModel(key, chainVec, renderData.getLastModel());
+        int[] vertexLight = renderData.getVertexLight(model, light);
+        if (triangles) model.renderTriangles(buffer, positionMatrix, vertexLight);
+        else model.render(buffer, positionMatrix, vertexLight);
+        stats.addVertices(model.vertexCount());
     }
 
     /**
-     * Generates a new baked chain model for the given vector.
+     * Returns the cached model for the given {@code key}.
+     * When it is not present, it is built on a build thread and {@code fallback} is returned until it is ready.
+     * Without a fallback, the {@link Lod#FAR far} model is used as a placeholder, which is cheap enough to be built right away.
      *
-     * @param chainVec The vector from the chain start to the end
-     * @return The generated model
+     * @param key      The cache key for the {@code chainVec}, it is copied when a new model is added
+     * @param chainVec The vector from the start position to the end position
+     * @param fallback The model that was previously drawn for the same link or null
+     * @return The cached model or a placeholder
      */
-    private ChainModel buildModel(Vector3f chainVec) {
-        float desiredSegmentLength = 1f / ConnectibleChains.runtimeConfig.getQuality();
-        int initialCapacity = (int) (2f * chainVec.lengthSquared() / desiredSegmentLength);
-        ChainModel.Builder builder = ChainModel.builder(initialCapacity);
-
-        if (Float.isNaN(chainVec.x()) && Float.isNaN(chainVec.z())) {
-            buildFaceVertical(builder, chainVec, 45, UVRect.DEFAULT_SIDE_A);
-            buildFaceVertical(builder, chainVec, -45, UVRect.DEFAULT_SIDE_B);
-        } else {
-            buildFace(builder, chainVec, 45, UVRect.DEFAULT_SIDE_A);
-            buildFace(builder, chainVec, -45, UVRect.DEFAULT_SIDE_B);
+    public ChainModel getBakedModel(BakeKey key, Vector3f chainVec, @Nullable ChainModel fallback) {
+        ChainModel model = models.getAndMoveToLast(key);
+        if (model != null) {
+            cacheHits++;
+            return model;
+        }
+        if (key.lod == Lod.FAR) {
+            cacheMisses++;
+            model = buildModel(chainVec, key).build();
+            putModel(key.copy(), model);
+            return model;
         }
 
-        return builder.build();
+        requestModel(key, chainVec);
+        placeholderCount++;
+        if (fallback != null) return fallback;
+        placeholderKey.dY = key.dY;
+        placeholderKey.dXZ = key.dXZ;
+        placeholderKey.quality = key.quality;
+        placeholderKey.hangAmount = key.hangAmount;
+        placeholderKey.maxSegmentError = key.maxSegmentError;
+        placeholderKey.lod = Lod.FAR;
+        return getBakedModel(placeholderKey, chainVec, null);
     }
 
     /**
-     * {@link #buildFace} does not work when {@code v} is pointing straight up or down.
+     * Starts building the model for {@code key} on a build thread, unless it is already cached or being built.
+     * This can be used to warm the cache before the chain is drawn for the first time.
+     * The job works on copies of the key and vector, so both may be reused by the caller.
+     *
+     * @param key      The cache key for the {@code chainVec}
+     * @param chainVec The vector from the start position to the end position
      */
-    private void buildFaceVertical(ChainModel.Builder builder, Vector3f v, float angle, UVRect uv) {
-        v.x = 0;
-        v.z = 0;
-        float actualSegmentLength = 1f / ConnectibleChains.runtimeConfig.getQuality();
-        float chainWidth = (uv.x1() - uv.x0()) / 16 * CHAIN_SCALE;
-
-        Vector3f normal = new Vector3f((float) Math.cos(Math.toRadians(angle)), 0, (float) Math.sin(Math.toRadians(angle)));
-        normal.normalize(chainWidth);
+    public void requestModel(BakeKey key, Vector3f chainVec) {
+        if (models.containsKey(key) || pendingBuilds.contains(key)) return;
+        if (pendingBuilds.size() >= MAX_PENDING_BUILDS) return;
+        cacheMisses++;
+
+        BakeKey buildKey = key.copy();
+        Vector3f buildVec = new Vector3f(chainVec);
+        int buildGeneration = generation;
+        pendingBuilds.add(buildKey);
+        BUILD_EXECUTOR.execute(() -> {
+            ChainModel model;
+            try {
+                model = buildModel(buildVec, buildKey).build();
+            } catch (RuntimeException e) {
+                ConnectibleChains.LOGGER.error("Failed to build chain model", e);
+                model = null;
+            }
+            builtModels.add(new BuiltModel(buildKey, model, buildGeneration));
+        });
+    }
 
-        Vector3f vert00 = new Vector3f(-normal.x() / 2, 0, -normal.z() / 2), vert01 = new Vector3f(vert00);
-//        vert01.add(normal);
-        Vector3f vert10 = new Vector3f(-normal.x() / 2, 0, -normal.z() / 2), vert11 = new Vector3f(vert10);
-//        vert11.add(normal);
+    /**
+     * Moves the models that the build threads have finished into the cache.
+     * Must be called on the render thread once per frame, before the chains are drawn.
+     */
+    public void collectBuiltModels() {
+        BuiltModel built;
+        while ((built = builtModels.poll()) != null) {
+            if (built.generation() != generation) continue;
+            pendingBuilds.remove(built.key());
+            if (built.model() == null) continue;
+            putModel(built.key(), built.model());
+            builtModelCount++;
+        }
+    }
 
-        float uvv0 = 0, uvv1 = 0;
-        boolean lastIter = false;
-        for (int segment = 0; segment < MAX_SEGMENTS; segment++) {
-            if (vert00.y() + actualSegmentLength >= v.y()) {
-                lastIter = true;
-                actualSegmentLength = v.y() - vert00.y();
-            }
+    private void putModel(BakeKey key, ChainModel model) {
+        models.putAndMoveToLast(key, model);
+        if (models.size() > MAX_CACHED_MODELS) {
+            models.removeFirst();
+            cacheEvictions++;
+        }
+    }
 
-            vert10.add(0, actualSegmentLength, 0);
-            vert11.add(0, actualSegmentLength, 0);
+    /**
+     * Generates the geometry of a chain for the given vector with the settings stored in {@code key}.
+     * Build threads only use the settings of the key, so a config change while a model is built
+     * cannot produce a model that does not match its key.
+     * The returned builder belongs to the current thread and is reused by the next call.
+     *
+     * @param chainVec The vector from the chain start to the end, it may be modified
+     * @param key      The cache key of the model
+     * @return The builder containing the geometry
+     */
+    private ChainModel.Builder buildModel(Vector3f chainVec, BakeKey key) {
+        BuildContext context = BUILD_CONTEXT.get();
+        buildModel(context, context.builder, chainVec, key.lod, key.quality,
+                Float.intBitsToFloat(key.hangAmount), Float.intBitsToFloat(key.maxSegmentError));
+        return context.builder;
+    }
 
-            uvv1 += actualSegmentLength / CHAIN_SCALE;
+    /**
+     * Same as {@link #buildModel(Vector3f, BakeKey)} but with the current settings, must be called on the render thread.
+     */
+    private ChainModel.Builder buildModel(Vector3f chainVec, Lod lod) {
+        BuildContext context = BUILD_CONTEXT.get();
+        buildModel(context, context.builder, chainVec, lod, ConnectibleChains.runtimeConfig.getQuality(),
+                ConnectibleChains.runtimeConfig.getChainHangAmount(), ConnectibleChains.runtimeConfig.getMaxSegmentError());
+        return context.builder;
+    }
 
-            builder.vertex(vert00).uv(uv.x0() / 16f, uvv0).next();
-            builder.vertex(vert01).uv(uv.x1() / 16f, uvv0).next();
-            builder.vertex(vert11).uv(uv.x1() / 16f, uvv1).next();
-            builder.vertex(vert10).uv(uv.x0() / 16f, uvv1).next();
+    /**
+     * Clears {@code builder} and generates the geometry of a chain for the given vector into it.
+     * The curve is sampled once and both crossed faces are built from the same samples.
+     * No config is read here, all settings that change the geometry are passed in.
+     *
+     * @param quality         The segments per block at full detail, see {@link Lod#getSegmentLength(float, int)}
+     * @param hangAmount      The hang amount of the chain
+     * @param maxSegmentError The largest distance between a segment and the curve, see {@link #sampleCurve}
+     */
+    private void buildModel(BuildContext context, ChainModel.Builder builder, Vector3f chainVec, Lod lod,
+                            int quality, float hangAmount, float maxSegmentError) {
+        long start = System.nanoTime();
+        builder.clear();
 
-            if (lastIter) break;
+        if (Float.isNaN(chainVec.x()) && Float.isNaN(chainVec.z())) {
+            chainVec.x = 0;
+            chainVec.z = 0;
+            sampleVertical(context, chainVec.y(), lod.getSegmentLength(Math.abs(chainVec.y()), quality));
+            buildFaceVertical(context, builder, 45, UVRect.DEFAULT_SIDE_A);
+            buildFaceVertical(context, builder, -45, UVRect.DEFAULT_SIDE_B);
+        } else {
+            CatenaryCurve curve = new CatenaryCurve(chainVec.length(), chainVec.y(), hangAmount);
+            sampleCurve(context, chainVec, lod.getSegmentLength(chainVec.length(), quality), maxSegmentError, curve);
+            buildFace(context, builder, 45, UVRect.DEFAULT_SIDE_A);
+            buildFace(context, builder, -45, UVRect.DEFAULT_SIDE_B);
+        }
+        stats.addBuildTime(System.nanoTime() - start);
+    }
 
-            uvv0 = uvv1;
+    /**
+     * Samples a vertical chain from the origin to {@code height} into the {@link CurveSamples} of the context.
+     * The gradient of vertical samples is not used.
+     */
+    private void sampleVertical(BuildContext context, float height, float segmentLength) {
+        CurveSamples samples = context.samples;
+        samples.clear();
+        samples.add(0, 0, 0);
 
-            vert00.set(vert10);
-            vert01.set(vert11);
+        float y = 0, actualSegmentLength = segmentLength;
+        for (int segment = 0; segment < MAX_SEGMENTS; segment++) {
+            boolean lastIter = y + actualSegmentLength >= height;
+            if (lastIter) actualSegmentLength = height - y;
+            y += actualSegmentLength;
+            samples.add(0, y, 0);
+            if (lastIter) break;
         }
     }
 
     /**
-     * Creates geometry from the origin to {@code v} with the specified {@code angle}.
-     * It uses an iterative approach meaning that it adds geometry until it's at the end or
+     * Samples the curve from the origin to {@code v} into the {@link CurveSamples} of the context.
+     * It uses an iterative approach meaning that it adds samples until it's at the end or
      * has reached {@link #MAX_SEGMENTS}.
-     * The model is always generated along the local X axis and curves along the Y axis.
+     * The curve is always sampled along the local X axis and curves along the Y axis.
      * This makes the calculation a lot simpler as we are only dealing with 2d coordinates.
      *
-     * @param builder The target builder
-     * @param v       The end position in relation to the origin
-     * @param angle   The angle of the face
-     * @param uv      The uv bounds of the face
+     * @param context       The scratch vectors and samples
+     * @param v             The end position in relation to the origin
+     * @param segmentLength The shortest desired length of a segment, it is increased where the curve is flat
+     * @param maxError      The largest distance between a segment and the curve, see {@link #adaptSegmentLength}
+     * @param curve         The curve from the origin to {@code v}
      */
-    private void buildFace(ChainModel.Builder builder, Vector3f v, float angle, UVRect uv) {
-        float actualSegmentLength, desiredSegmentLength = 1f / ConnectibleChains.runtimeConfig.getQuality();
+    private void sampleCurve(BuildContext context, Vector3f v, float segmentLength, float maxError, CatenaryCurve curve) {
+        CurveSamples samples = context.samples;
+        samples.clear();
+
         float distance = v.length(), distanceXZ = (float) Math.sqrt(Math.fma(v.x(), v.x(), v.z() * v.z()));
         // Original code used total distance between start and end instead of horizontal distance
         // That changed the look of chains when there was a big height difference, but it looks better.
         float wrongDistanceFactor = distance / distanceXZ;
+        samples.normalY = Math.abs(distanceXZ / distance);
+
+        float x = 0, gradient = (float) curve.slope(0);
+        samples.add(0, (float) curve.y(0), gradient);
+
+        // This is a pretty simple algorithm to convert the mathematical curve to a model.
+        // It uses an incremental approach, adding segments until the end is reached.
+        for (int segment = 0; segment < MAX_SEGMENTS; segment++) {
+            x += estimateDeltaX(adaptSegmentLength(segmentLength, maxError, x, gradient, wrongDistanceFactor, curve), gradient);
+            boolean lastIter = x >= distanceXZ;
+            if (lastIter) x = distanceXZ;
 
-        // 00, 01, 11, 11 refers to the X and Y position of the vertex.
-        // 00 is the lower X and Y vertex. 10 Has the same y value as 00 but a higher x value.
-        Vector3f vert00 = new Vector3f(), vert01 = new Vector3f(), vert11 = new Vector3f(), vert10 = new Vector3f();
-        Vector3f normal = new Vector3f(), rotAxis = new Vector3f();
+            gradient = (float) curve.slope(x * wrongDistanceFactor);
+            samples.add(x, (float) curve.y(x * wrongDistanceFactor), gradient);
+            if (lastIter) break;
+        }
+    }
 
+    /**
+     * {@link #buildFace} does not work when the chain is pointing straight up or down.
+     * Creates a straight face through the samples of {@link #sampleVertical}.
+     */
+    private void buildFaceVertical(BuildContext context, ChainModel.Builder builder, float angle, UVRect uv) {
+        CurveSamples samples = context.samples;
         float chainWidth = (uv.x1() - uv.x0()) / 16 * CHAIN_SCALE;
-        //
-        float uvv0, uvv1 = 0, gradient, x, y;
-        Vector3f point0 = new Vector3f(), point1 = new Vector3f();
-        Quaternionf rotator = new Quaternionf();
 
-        // All of this setup can probably go, but I can't figure out
-        // how to integrate it into the loop :shrug:
-        point0.set(0, (float) drip2(0, distance, v.y()), 0);
-        gradient = (float) drip2prime(0, distance, v.y());
-        normal.set(-gradient, Math.abs(distanceXZ / distance), 0);
-        normal.normalize();
+        Vector3f normal = context.normal.set((float) Math.cos(Math.toRadians(angle)), 0, (float) Math.sin(Math.toRadians(angle)));
+        normal.normalize(chainWidth);
 
-        x = estimateDeltaX(desiredSegmentLength, gradient);
-        gradient = (float) drip2prime(x * wrongDistanceFactor, distance, v.y());
-        y = (float) drip2(x * wrongDistanceFactor, distance, v.y());
-        point1.set(x, y, 0);
+        Vector3f vert = context.vert10.set(-normal.x() / 2, 0, -normal.z() / 2);
 
-        rotAxis.set(point1.x() - point0.x(), point1.y() - point0.y(), point1.z() - point0.z());
-        rotAxis.normalize();
-        rotator.fromAxisAngleDeg(rotAxis, angle);
+        // The first vertex is repeated so the face is separated from whatever came before it in the strip
+        builder.vertex(vert).uv(uv.x0() / 16f, 0).next();
+        builder.vertex(vert).uv(uv.x0() / 16f, 0).next();
+        builder.vertex(vert).uv(uv.x1() / 16f, 0).next();
 
+        float uvv1 = 0;
+        for (int i = 1; i < samples.size; i++) {
+            float y = samples.y[i];
+            uvv1 += (y - samples.y[i - 1]) / CHAIN_SCALE;
+            vert.y = y;
 
-        normal.rotate(rotator);
-        normal.normalize(chainWidth);
-        vert10.set(point0.x() - normal.x() / 2, point0.y() - normal.y() / 2, point0.z() - normal.z() / 2);
-        vert11.set(vert10);
-        vert11.add(normal);
+            builder.vertex(vert).uv(uv.x0() / 16f, uvv1).next();
+            builder.vertex(vert).uv(uv.x1() / 16f, uvv1).next();
+        }
+        // The last vertex is repeated so the face is separated from whatever comes after it in the strip
+        builder.vertex(vert).uv(uv.x1() / 16f, uvv1).next();
+    }
 
+    /**
+     * Creates geometry through the samples of {@link #sampleCurve} with the specified {@code angle}.
+     * The model is always generated along the local X axis and curves along the Y axis.
+     *
+     * @param context The scratch vectors and samples
+     * @param builder The target builder
+     * @param angle   The angle of the face
+     * @param uv      The uv bounds of the face
+     */
+    private void buildFace(BuildContext context, ChainModel.Builder builder, float angle, UVRect uv) {
+        CurveSamples samples = context.samples;
+        float[] xs = samples.x, ys = samples.y, gradients = samples.gradient;
 
-        actualSegmentLength = point0.distance(point1);
+        // 10 and 11 refer to the X and Y position of the vertex.
+        // The face is a triangle strip, so only the two vertices at the end of each segment are added.
+        Vector3f vert11 = context.vert11, vert10 = context.vert10;
+        Vector3f normal = context.normal, rotAxis = context.rotAxis;
+        Quaternionf rotator = context.rotator;
 
-        // This is a pretty simple algorithm to convert the mathematical curve to a model.
-        // It uses an incremental approach, adding segments until the end is reached.
-        boolean lastIter = false;
-        for (int segment = 0; segment < MAX_SEGMENTS; segment++) {
-            rotAxis.set(point1.x() - point0.x(), point1.y() - point0.y(), point1.z() - point0.z());
+        float chainWidth = (uv.x1() - uv.x0()) / 16 * CHAIN_SCALE;
+        float uvv1 = 0;
+
+        for (int i = 0; i < samples.size; i++) {
+            // The start uses the direction of the first segment, every other sample the direction of the segment ending there
+            int i0 = Math.max(i - 1, 0), i1 = Math.max(i, 1);
+            float dx = xs[i1] - xs[i0], dy = ys[i1] - ys[i0];
+            rotAxis.set(dx, dy, 0);
             rotAxis.normalize();
-            rotator = rotator.fromAxisAngleDeg(rotAxis, angle);
+            rotator.fromAxisAngleDeg(rotAxis, angle);
 
             // This normal is orthogonal to the face normal
-            normal.set(-gradient, Math.abs(distanceXZ / distance), 0);
+            normal.set(-gradients[i], samples.normalY, 0);
             normal.normalize();
             normal.rotate(rotator);
             normal.normalize(chainWidth);
 
-            vert00.set(vert10);
-            vert01.set(vert11);
-
-            vert10.set(point1.x() - normal.x() / 2, point1.y() - normal.y() / 2, point1.z() - normal.z() / 2);
+            vert10.set(xs[i] - normal.x() / 2, ys[i] - normal.y() / 2, -normal.z() / 2);
             vert11.set(vert10);
             vert11.add(normal);
 
-            uvv0 = uvv1;
-            uvv1 = uvv0 + actualSegmentLength / CHAIN_SCALE;
+            if (i == 0) {
+                // The first vertex is repeated so the face is separated from whatever came before it in the strip
+                builder.vertex(vert10).uv(uv.x0() / 16f, 0).next();
+            } else {
+                uvv1 += (float) Math.sqrt(dx * dx + dy * dy) / CHAIN_SCALE;
+            }
 
-            builder.vertex(vert00).uv(uv.x0() / 16f, uvv0).next();
-            builder.vertex(vert01).uv(uv.x1() / 16f, uvv0).next();
-            builder.vertex(vert11).uv(uv.x1() / 16f, uvv1).next();
             builder.vertex(vert10).uv(uv.x0() / 16f, uvv1).next();
+            builder.vertex(vert11).uv(uv.x1() / 16f, uvv1).next();
+        }
+        // The last vertex is repeated so the face is separated from whatever comes after it in the strip
+        builder.vertex(vert11).uv(uv.x1() / 16f, uvv1).next();
+    }
 
-            if (lastIter) break;
-
-            point0.set(point1);
-
-            x += estimateDeltaX(desiredSegmentLength, gradient);
-            if (x >= distanceXZ) {
-                lastIter = true;
-                x = distanceXZ;
-            }
-
-            gradient = (float) drip2prime(x * wrongDistanceFactor, distance, v.y());
-            y = (float) drip2(x * wrongDistanceFactor, distance, v.y());
-            point1.set(x, y, 0);
+    /**
+     * Increases the segment length where the curve is flat.
+     * The chord of a segment with the length s deviates about κ * s² / 8 from a curve with the curvature κ,
+     * so the segment can be √(8 * maxError / κ) long. The curvature is evaluated at both ends of the segment
+     * and the larger one is used.
+     * <p>
+     * The curve is y(x) = f(x * w) and with f' = sinh(u), f'' = cosh(u) / a it follows that
+     * <p>
+     * κ = y'' / (1 + y'^2)^(3/2)
+     * κ = w^2 * √(1 + k^2) / (a * (1 + (w * k)^2)^(3/2))
+     *
+     * @param minLength The shortest segment length
+     * @param maxError  The maximum distance between the segment and the curve, no adaption happens when it is 0
+     * @param x         The start of the segment
+     * @param k         The gradient at {@code x}
+     * @param w         The factor between x and the argument of the curve
+     * @param curve     The curve f of the chain
+     * @return The length of the segment
+     */
+    private float adaptSegmentLength(float minLength, float maxError, float x, float k, float w, CatenaryCurve curve) {
+        if (maxError <= 0) return minLength;
+        float a = (float) curve.getA();
+        float length = Math.min(maxErrorSegmentLength(maxError, k, w, a), MAX_ADAPTIVE_SEGMENT_LENGTH);
+        if (length <= minLength) return minLength;
+
+        float endK = (float) curve.slope((x + estimateDeltaX(length, k)) * w);
+        length = Math.min(length, maxErrorSegmentLength(maxError, endK, w, a));
+        return Math.max(length, minLength);
+    }
 
-            actualSegmentLength = point0.distance(point1);
-        }
+    private float maxErrorSegmentLength(float maxError, float k, float w, float a) {
+        float wk = w * k;
+        float curvature = w * w * (float) Math.sqrt(1 + k * k) / (a * (float) Math.pow(1 + wk * wk, 1.5));
+        return (float) Math.sqrt(8 * maxError / curvature);
     }
 
     /**
@@ -263,14 +466,41 @@ public class ChainRenderer {
     }
 
     /**
-     * Same as {@link #renderBaked(VertexConsumer, MatrixStack, BakeKey, Vector3f, int, int, int, int)} but will not use
+     * Same as {@link #renderBaked(VertexConsumer, Matrix4f, BakeKey, Vector3f, LinkRenderData, int, boolean)} but will not use
      * the model cache. This should be used when {@code chainVec} is changed very frequently.
+     * The geometry is kept in the dynamic mesh of the link and only rebuilt when the chain has changed,
+     * a rebuild reuses the arrays of the mesh, so no model is allocated.
+     * Dynamic links are only written to the immediate entity buffers, so the geometry is written as separate triangles,
+     * see {@link ChainRenderLayer#getChainImmediate(net.minecraft.util.Identifier)}.
      *
+     * @param mesh The dynamic mesh of the link, see {@link LinkRenderData#getDynamicMesh()}
      * @see #renderBaked
      */
-    public void render(VertexConsumer buffer, MatrixStack matrices, Vector3f chainVec, int blockLight0, int blockLight1, int skyLight0, int skyLight1) {
-        ChainModel model = buildModel(chainVec);
-        model.render(buffer, matrices, blockLight0, blockLight1, skyLight0, skyLight1);
+    public void render(VertexConsumer buffer, Matrix4f positionMatrix, Vector3f chainVec, Lod lod, DynamicMesh mesh, int light) {
+        int quality = ConnectibleChains.runtimeConfig.getQuality();
+        float hangAmount = ConnectibleChains.runtimeConfig.getChainHangAmount();
+        float maxSegmentError = ConnectibleChains.runtimeConfig.getMaxSegmentError();
+        if (!mesh.matches(chainVec, lod, quality, hangAmount, maxSegmentError, generation)) {
+            mesh.set(chainVec, lod, quality, hangAmount, maxSegmentError, generation);
+            buildModel(BUILD_CONTEXT.get(), mesh.builder, chainVec, lod, quality, hangAmount, maxSegmentError);
+            dynamicRebuilds++;
+        }
+        mesh.builder.renderTriangles(buffer, positionMatrix, light);
+        stats.addVertices(mesh.builder.vertexCount());
+    }
+
+    /**
+     * Renders the edges of the chain geometry as lines, the model cache is not used.
+     *
+     * @param buffer         A {@link net.minecraft.client.render.RenderLayer#getLines() lines} buffer
+     * @param positionMatrix The chain transformation
+     * @param normalMatrix   The chain normal transformation
+     * @param chainVec       The vector from the start position to the end position
+     */
+    public void renderDebug(VertexConsumer buffer, Matrix4f positionMatrix, Matrix3f normalMatrix, Vector3f chainVec) {
+        ChainModel.Builder builder = buildModel(chainVec, Lod.FULL);
+        builder.renderDebug(buffer, positionMatrix, normalMatrix);
+        stats.addVertices(builder.vertexCount());
     }
 
     /**
@@ -278,22 +508,262 @@ public class ChainRenderer {
      */
     public void purge() {
         models.clear();
+        pendingBuilds.clear();
+        generation++;
+    }
+
+    /**
+     * @return How many times a model was found in the cache.
+     */
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * @return How many times a model had to be built because it was not in the cache.
+     */
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return How many models were removed from the cache to make room for new ones.
+     */
+    public long getCacheEvictions() {
+        return cacheEvictions;
+    }
+
+    /**
+     * @return The number of models that are currently cached.
+     */
+    public int getCachedModelCount() {
+        return models.size();
+    }
+
+    /**
+     * @return The number of models that are currently being built.
+     */
+    public int getPendingBuildCount() {
+        return pendingBuilds.size();
+    }
+
+    /**
+     * @return How many models from the build threads have been added to the cache, it changes when new models are ready.
+     */
+    public long getBuiltModelCount() {
+        return builtModelCount;
+    }
+
+    /**
+     * @return How many times a fallback or placeholder was returned, it changes when a model was not ready.
+     */
+    public long getPlaceholderCount() {
+        return placeholderCount;
+    }
+
+    /**
+     * @return How many times the geometry of a moving link had to be rebuilt.
+     */
+    public long getDynamicRebuilds() {
+        return dynamicRebuilds;
+    }
+
+    /**
+     * A model that was finished by a build thread.
+     *
+     * @param model The model or null if the build failed
+     */
+    private record BuiltModel(BakeKey key, @Nullable ChainModel model, int generation) {
+    }
+
+    /**
+     * The geometry of a link that can move, for example because a player holds it.
+     * It is reused as long as the chain vector stays within {@link #EPSILON} of the vector it was built for
+     * and the settings that change the geometry are the same.
+     */
+    public static class DynamicMesh {
+        /**
+         * The largest change in blocks that does not cause a rebuild, it is the same as the precision of the bake key.
+         */
+        private static final float EPSILON = 1 / 1024f;
+
+        private final ChainModel.Builder builder = ChainModel.builder(64);
+        private float x, y, z;
+        /**
+         * The settings that change the geometry, like in the {@link BakeKey}.
+         */
+        private int quality;
+        private float hangAmount;
+        private float maxSegmentError;
+        @Nullable
+        private Lod lod;
+        private int generation;
+
+        private boolean matches(Vector3f chainVec, Lod lod, int quality, float hangAmount, float maxSegmentError, int generation) {
+            return this.lod == lod && this.generation == generation && this.quality == quality
+                    && this.hangAmount == hangAmount && this.maxSegmentError == maxSegmentError
+                    && isClose(x, chainVec.x()) && isClose(y, chainVec.y()) && isClose(z, chainVec.z());
+        }
+
+        /**
+         * Vertical chains have NaN x and z components, see {@link #buildModel}.
+         */
+        private static boolean isClose(float a, float b) {
+            return Math.abs(a - b) <= EPSILON || Float.isNaN(a) && Float.isNaN(b);
+        }
+
+        private void set(Vector3f chainVec, Lod lod, int quality, float hangAmount, float maxSegmentError, int generation) {
+            // Building may modify the vector, so it is stored before
+            this.x = chainVec.x();
+            this.y = chainVec.y();
+            this.z = chainVec.z();
+            this.lod = lod;
+            this.quality = quality;
+            this.hangAmount = hangAmount;
+            this.maxSegmentError = maxSegmentError;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * The builder and scratch vectors used while building a model.
+     */
+    private static final class BuildContext {
+        private final ChainModel.Builder builder = ChainModel.builder(256);
+        private final Vector3f vert10 = new Vector3f(), vert11 = new Vector3f();
+        private final Vector3f normal = new Vector3f(), rotAxis = new Vector3f();
+        private final Quaternionf rotator = new Quaternionf();
+        private final CurveSamples samples = new CurveSamples();
+    }
+
+    /**
+     * Points on the curve of a chain in the local space of the model, shared by both crossed faces.
+     */
+    private static final class CurveSamples {
+        private float[] x = new float[64], y = new float[64], gradient = new float[64];
+        private int size;
+        /**
+         * The y component of the unrotated normal, it is the same for every sample.
+         */
+        private float normalY;
+
+        private void clear() {
+            size = 0;
+        }
+
+        private void add(float x, float y, float gradient) {
+            if (size == this.x.length) {
+                int capacity = size * 2;
+                this.x = Arrays.copyOf(this.x, capacity);
+                this.y = Arrays.copyOf(this.y, capacity);
+                this.gradient = Arrays.copyOf(this.gradient, capacity);
+            }
+            this.x[size] = x;
+            this.y[size] = y;
+            this.gradient[size] = gradient;
+            size++;
+        }
+    }
+
+    /**
+     * The level of detail of a chain model, it is selected by the distance to the camera.
+     * Every level has its own cache entries.
+     */
+    public enum Lod {
+        /**
+         * Segments are {@code 1 / quality} blocks long.
+         */
+        FULL,
+        /**
+         * Segments are {@link #MEDIUM_SEGMENT_FACTOR} times longer than at full detail.
+         */
+        MEDIUM,
+        /**
+         * Each face only consists of two segments, which still shows where the chain hangs the lowest.
+         */
+        FAR;
+
+        private static final float MEDIUM_SEGMENT_FACTOR = 4;
+        private static final float FAR_SEGMENTS = 2;
+
+        /**
+         * @param squaredDistance The squared distance between the camera and the chain
+         * @return The level of detail for that distance, the thresholds are set in the config
+         */
+        public static Lod select(double squaredDistance) {
+            int farDistance = ConnectibleChains.runtimeConfig.getLodFarDistance();
+            if (squaredDistance >= farDistance * farDistance) return FAR;
+            int mediumDistance = ConnectibleChains.runtimeConfig.getLodMediumDistance();
+            if (squaredDistance >= mediumDistance * mediumDistance) return MEDIUM;
+            return FULL;
+        }
+
+        /**
+         * @param chainLength The length of the chain
+         * @param quality     The segments per block at full detail, see {@link com.github.legoatoom.connectiblechains.config.ModConfig#getQuality()}
+         * @return The desired length of a single segment
+         */
+        public float getSegmentLength(float chainLength, int quality) {
+            float fullLength = 1f / quality;
+            return switch (this) {
+                case FULL -> fullLength;
+                case MEDIUM -> fullLength * MEDIUM_SEGMENT_FACTOR;
+                case FAR -> Math.max(fullLength, chainLength / FAR_SEGMENTS);
+            };
+        }
     }
 
     /**
      * Used to identify a cached model.
      * Chains that have an identical bake key can use the same model as the geometry is the same.
+     * The distances are quantized, so two keys are only equal when their geometry is equal,
+     * the settings that change the geometry are part of the key as well.
+     * <p>
+     * A key can be reused with {@link #set}, the cache only ever stores {@link #copy() copies}.
      */
     public static class BakeKey {
-        private final int hash;
-
-        public BakeKey(Vec3d srcPos, Vec3d dstPos) {
-            float dY = (float) (srcPos.y - dstPos.y);
-            float dXZ = new Vector3f((float) srcPos.x, 0, (float) srcPos.z)
-                    .distance((float) dstPos.x, 0, (float) dstPos.z);
-            int hash = Float.floatToIntBits(dY);
-            hash = 31 * hash + Float.floatToIntBits(dXZ);
-            this.hash = hash;
+        /**
+         * The distances are stored as fixed point numbers with this many steps per block.
+         */
+        private static final double PRECISION = 1024;
+
+        private int dY;
+        private int dXZ;
+        private int quality;
+        private int hangAmount;
+        private int maxSegmentError;
+        private Lod lod = Lod.FULL;
+
+        /**
+         * Sets the key for a chain from {@code (srcX, srcY, srcZ)} to {@code (dstX, dstY, dstZ)}.
+         *
+         * @return this
+         */
+        public BakeKey set(double srcX, double srcY, double srcZ, double dstX, double dstY, double dstZ, Lod lod) {
+            double dX = srcX - dstX;
+            double dZ = srcZ - dstZ;
+            this.dY = quantize(srcY - dstY);
+            this.dXZ = quantize(Math.sqrt(dX * dX + dZ * dZ));
+            this.quality = ConnectibleChains.runtimeConfig.getQuality();
+            this.hangAmount = Float.floatToIntBits(ConnectibleChains.runtimeConfig.getChainHangAmount());
+            this.maxSegmentError = Float.floatToIntBits(ConnectibleChains.runtimeConfig.getMaxSegmentError());
+            this.lod = lod;
+            return this;
+        }
+
+        public BakeKey copy() {
+            BakeKey copy = new BakeKey();
+            copy.dY = dY;
+            copy.dXZ = dXZ;
+            copy.quality = quality;
+            copy.hangAmount = hangAmount;
+            copy.maxSegmentError = maxSegmentError;
+            copy.lod = lod;
+            return copy;
+        }
+
+        private static int quantize(double value) {
+            return (int) Math.round(value * PRECISION);
         }
 
         @Override
@@ -302,11 +772,19 @@ public class ChainRenderer {
             if (o == null || getClass() != o.getClass()) return false;
 
             BakeKey bakeKey = (BakeKey) o;
-            return hash == bakeKey.hash;
+            return dY == bakeKey.dY && dXZ == bakeKey.dXZ
+                    && quality == bakeKey.quality && hangAmount == bakeKey.hangAmount
+                    && maxSegmentError == bakeKey.maxSegmentError && lod == bakeKey.lod;
         }
 
         @Override
         public int hashCode() {
+            int hash = dY;
+            hash = 31 * hash + dXZ;
+            hash = 31 * hash + quality;
+            hash = 31 * hash + hangAmount;
+            hash = 31 * hash + maxSegmentError;
+            hash = 31 * hash + lod.ordinal();
             return hash;
         }
     }
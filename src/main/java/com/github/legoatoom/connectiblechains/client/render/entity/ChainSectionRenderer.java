@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.client.render.entity;
+
+import com.github.legoatoom.connectiblechains.ConnectibleChains;
+import com.github.legoatoom.connectiblechains.chain.ChainLink;
+import com.github.legoatoom.connectiblechains.config.ModConfig;
+import com.github.legoatoom.connectiblechains.entity.ChainKnotEntity;
+import com.mojang.blaze3d.systems.RenderSystem;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.ReferenceArrayList;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderContext;
+import net.minecraft.client.gl.ShaderProgram;
+import net.minecraft.client.gl.VertexBuffer;
+import net.minecraft.client.render.BufferBuilder;
+import net.minecraft.client.render.Frustum;
+import net.minecraft.client.render.RenderLayer;
+import net.minecraft.client.util.math.MatrixStack;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.decoration.AbstractDecorationEntity;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix4f;
+
+import java.util.List;
+
+/**
+ * Draws static links, between two knots, from vertex buffers that are shared by all links in a chunk section.
+ * A link belongs to the section of its primary knot.
+ * It is also registered with every other section its bounds cover, so a block or light change anywhere along the chain
+ * rebuilds the section that contains it.
+ * <p>
+ * The buffers of a section are only rebuilt when it is marked dirty, that happens when a link is attached or detached,
+ * when a knot changes its type or is unloaded and when the section is re-rendered, e.g. because the light changed.
+ * They are also rebuilt when the {@link ChainRenderer.Lod level of detail} of the section changes.
+ * Everything else, like chains held by players, is still drawn by the {@link ChainKnotEntityRenderer}.
+ * <p>
+ * Links are only tracked while the renderer is {@link #isActive() active}, they are collected from the loaded knots
+ * when it is switched on and forgotten when it is switched off or their knot is unloaded.
+ */
+@Environment(EnvType.CLIENT)
+public class ChainSectionRenderer {
+    private final Long2ObjectOpenHashMap<SectionMesh> sections = new Long2ObjectOpenHashMap<>(64);
+    /**
+     * The meshes with links whose bounds cover a section, by the covered section.
+     * The section that contains a mesh itself is not part of this.
+     */
+    private final Long2ObjectOpenHashMap<ReferenceArrayList<SectionMesh>> coveringMeshes = new Long2ObjectOpenHashMap<>(64);
+    // Scratch objects used to build and draw the sections
+    private final Matrix4f sectionMatrix = new Matrix4f();
+    private final MatrixStack bakeMatrices = new MatrixStack();
+    private final ReferenceArrayList<RenderLayer> bakeLayers = new ReferenceArrayList<>(4);
+    private final LinkBounds bakeBounds = new LinkBounds();
+    @Nullable
+    private BufferBuilder bakeBuilder;
+    /**
+     * Set when the geometry of every chain has changed, this can happen on the network thread.
+     */
+    private volatile boolean allDirty = false;
+    /**
+     * The result of {@link #isActive()} in the last frame, the links are collected again when it changes.
+     */
+    private boolean wasActive = false;
+
+    /**
+     * @return true when static links are drawn by this renderer instead of the entity renderer
+     */
+    public static boolean isActive() {
+        return ConnectibleChains.runtimeConfig.getStaticChainRendering() == ModConfig.StaticChainRendering.SECTION_BUFFER
+                && !ConnectibleChains.runtimeConfig.doDebugDraw();
+    }
+
+    /**
+     * @return true when {@code link} is drawn by this renderer
+     */
+    public static boolean isSectionBuffered(ChainLink link) {
+        return link.secondary instanceof AbstractDecorationEntity && isActive();
+    }
+
+    /**
+     * Starts tracking {@code link} when it is static and this renderer is active.
+     * When the renderer becomes active later, the links are collected from the loaded knots instead.
+     *
+     * @param link A link that was just created on the client
+     */
+    public void addLink(ChainLink link) {
+        if (!(link.secondary instanceof AbstractDecorationEntity) || !isActive()) return;
+        long key = ChunkSectionPos.toLong(link.primary.getBlockPos());
+        SectionMesh mesh = sections.get(key);
+        if (mesh == null || mesh.world != link.primary.getWorld()) {
+            if (mesh != null) forget(mesh);
+            mesh = new SectionMesh(link.primary.getWorld(), key);
+            sections.put(key, mesh);
+        }
+        mesh.links.add(link);
+        mesh.dirty = true;
+    }
+
+    /**
+     * Forgets the links of a knot that was unloaded, its links are not destroyed on the client.
+     * Dead links are removed from the same sections and sections without links are freed right away,
+     * so nothing is kept until the next rebuild.
+     */
+    public void onKnotUnload(ChainKnotEntity knot) {
+        List<ChainLink> links = knot.getLinks();
+        for (int i = 0; i < links.size(); i++) {
+            ChainLink link = links.get(i);
+            long key = ChunkSectionPos.toLong(link.primary.getBlockPos());
+            SectionMesh mesh = sections.get(key);
+            if (mesh == null) continue;
+            mesh.links.removeIf(other -> other.primary == knot || other.secondary == knot || other.isDead() || other.needsBeDestroyed());
+            if (mesh.links.isEmpty()) {
+                forget(mesh);
+                sections.remove(key);
+            } else {
+                mesh.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Marks the section of {@code link} for a rebuild, dead links are removed during the rebuild.
+     */
+    public void markDirty(ChainLink link) {
+        markDirty(ChunkSectionPos.toLong(link.primary.getBlockPos()));
+    }
+
+    /**
+     * Marks the sections of all links of {@code knot} for a rebuild.
+     */
+    public void markDirty(ChainKnotEntity knot) {
+        List<ChainLink> links = knot.getLinks();
+        for (int i = 0; i < links.size(); i++) {
+            markDirty(links.get(i));
+        }
+    }
+
+    /**
+     * Marks the section at the given section coordinates for a rebuild.
+     */
+    public void markDirty(int sectionX, int sectionY, int sectionZ) {
+        markDirty(ChunkSectionPos.asLong(sectionX, sectionY, sectionZ));
+    }
+
+    private void markDirty(long key) {
+        SectionMesh mesh = sections.get(key);
+        if (mesh != null) mesh.dirty = true;
+        ReferenceArrayList<SectionMesh> covering = coveringMeshes.get(key);
+        if (covering == null) return;
+        for (int i = 0; i < covering.size(); i++) {
+            covering.get(i).dirty = true;
+        }
+    }
+
+    /**
+     * Marks every section for a rebuild, for example when the chain hang amount has changed.
+     * Unlike the other methods this one may be called from any thread.
+     */
+    public void markAllDirty() {
+        allDirty = true;
+    }
+
+    /**
+     * Rebuilds the dirty sections and draws all visible sections.
+     *
+     * @param context  The world render context
+     * @param renderer The entity renderer which provides the chain geometry and layers
+     */
+    public void render(WorldRenderContext context, ChainKnotEntityRenderer renderer) {
+        boolean active = isActive();
+        if (active != wasActive) {
+            // Links are only tracked while active, so they are collected from the loaded knots when switching
+            wasActive = active;
+            clear();
+            if (active) addLoadedLinks(context.world());
+        }
+        if (!active || sections.isEmpty()) return;
+
+        boolean rebuildAll = allDirty;
+        allDirty = false;
+        Frustum frustum = context.frustum();
+        Vec3d cameraPos = context.camera().getPos();
+        Matrix4f viewMatrix = context.matrixStack().peek().getPositionMatrix();
+
+        for (ObjectIterator<SectionMesh> iterator = sections.values().iterator(); iterator.hasNext(); ) {
+            SectionMesh mesh = iterator.next();
+            if (mesh.world != context.world()) {
+                forget(mesh);
+                iterator.remove();
+                continue;
+            }
+            LinkBounds bounds = mesh.bounds;
+            double dX = (bounds.minX + bounds.maxX) / 2 - cameraPos.x;
+            double dY = (bounds.minY + bounds.maxY) / 2 - cameraPos.y;
+            double dZ = (bounds.minZ + bounds.maxZ) / 2 - cameraPos.z;
+            ChainRenderer.Lod lod = ChainRenderer.Lod.select(dX * dX + dY * dY + dZ * dZ);
+            // Placeholders are replaced as soon as the build threads have finished new models
+            boolean modelsReady = mesh.hasPlaceholders && mesh.builtModelCount != renderer.getChainRenderer().getBuiltModelCount();
+            if (mesh.dirty || rebuildAll || modelsReady || mesh.lod != lod) rebuild(mesh, renderer, lod);
+            if (mesh.links.isEmpty()) {
+                forget(mesh);
+                iterator.remove();
+                continue;
+            }
+            if (frustum != null && !bounds.isVisible(frustum)) {
+                renderer.getRenderStats().countCulledLinks(mesh.links.size());
+                continue;
+            }
+
+            sectionMatrix.set(viewMatrix).translate(
+                    (float) (mesh.originX - cameraPos.x),
+                    (float) (mesh.originY - cameraPos.y),
+                    (float) (mesh.originZ - cameraPos.z));
+            mesh.draw(sectionMatrix, context.projectionMatrix());
+            renderer.getRenderStats().countSectionLinks(mesh.links.size());
+            renderer.getRenderStats().addVertices(mesh.vertexCount);
+        }
+        VertexBuffer.unbind();
+    }
+
+    private void addLoadedLinks(ClientWorld world) {
+        for (Entity entity : world.getEntities()) {
+            if (!(entity instanceof ChainKnotEntity knot)) continue;
+            List<ChainLink> links = knot.getLinks();
+            for (int i = 0; i < links.size(); i++) {
+                ChainLink link = links.get(i);
+                if (link.primary == knot && !link.isDead()) addLink(link);
+            }
+        }
+    }
+
+    /**
+     * Removes dead links and writes the geometry of all remaining links into one buffer per render layer.
+     * The vertices are relative to the origin of the section.
+     */
+    private void rebuild(SectionMesh mesh, ChainKnotEntityRenderer renderer, ChainRenderer.Lod lod) {
+        mesh.dirty = false;
+        mesh.lod = lod;
+        mesh.links.removeIf(link -> link.isDead() || link.needsBeDestroyed());
+        uncover(mesh);
+        if (mesh.links.isEmpty()) return;
+
+        bakeLayers.clear();
+        for (int i = 0; i < mesh.links.size(); i++) {
+            ChainLink link = mesh.links.get(i);
+            RenderLayer layer = renderer.getChainLayer(link.sourceItem);
+            if (!bakeLayers.contains(layer)) bakeLayers.add(layer);
+
+            LinkBounds linkBounds = i == 0 ? mesh.bounds.set(link) : bakeBounds.set(link);
+            if (i > 0) mesh.bounds.include(linkBounds);
+            cover(mesh, linkBounds);
+        }
+
+        ChainRenderer chainRenderer = renderer.getChainRenderer();
+        long placeholderCount = chainRenderer.getPlaceholderCount();
+        mesh.builtModelCount = chainRenderer.getBuiltModelCount();
+
+        ReferenceArrayList<RenderLayer> oldLayers = mesh.layers;
+        ReferenceArrayList<VertexBuffer> oldBuffers = mesh.buffers;
+        mesh.layers = new ReferenceArrayList<>(bakeLayers.size());
+        mesh.buffers = new ReferenceArrayList<>(bakeLayers.size());
+        mesh.vertexCount = 0;
+
+        for (int l = 0; l < bakeLayers.size(); l++) {
+            RenderLayer layer = bakeLayers.get(l);
+            if (bakeBuilder == null) bakeBuilder = new BufferBuilder(layer.getExpectedBufferSize());
+            bakeBuilder.begin(layer.getDrawMode(), layer.getVertexFormat());
+            for (int i = 0; i < mesh.links.size(); i++) {
+                ChainLink link = mesh.links.get(i);
+                if (renderer.getChainLayer(link.sourceItem) != layer) continue;
+                bakeMatrices.push();
+                bakeMatrices.translate(link.primary.getX() - mesh.originX, link.primary.getY() - mesh.originY, link.primary.getZ() - mesh.originZ);
+                renderer.bakeLink(link, bakeMatrices, bakeBuilder, lod);
+                bakeMatrices.pop();
+            }
+            BufferBuilder.BuiltBuffer builtBuffer = bakeBuilder.end();
+            mesh.vertexCount += builtBuffer.getParameters().vertexCount();
+
+            // Reuse the buffer of the previous build when the layer is still used
+            int oldIndex = oldLayers.indexOf(layer);
+            VertexBuffer vertexBuffer = oldIndex < 0 ? new VertexBuffer() : oldBuffers.set(oldIndex, null);
+            vertexBuffer.bind();
+            vertexBuffer.upload(builtBuffer);
+            mesh.layers.add(layer);
+            mesh.buffers.add(vertexBuffer);
+        }
+        VertexBuffer.unbind();
+        mesh.hasPlaceholders = chainRenderer.getPlaceholderCount() != placeholderCount;
+
+        for (int i = 0; i < oldBuffers.size(); i++) {
+            VertexBuffer unused = oldBuffers.get(i);
+            if (unused != null) unused.close();
+        }
+    }
+
+    /**
+     * Registers {@code mesh} with every section that {@code bounds} cover, except its own.
+     */
+    private void cover(SectionMesh mesh, LinkBounds bounds) {
+        int maxX = ChunkSectionPos.getSectionCoord(MathHelper.floor(bounds.maxX));
+        int maxY = ChunkSectionPos.getSectionCoord(MathHelper.floor(bounds.maxY));
+        int maxZ = ChunkSectionPos.getSectionCoord(MathHelper.floor(bounds.maxZ));
+        for (int x = ChunkSectionPos.getSectionCoord(MathHelper.floor(bounds.minX)); x <= maxX; x++) {
+            for (int y = ChunkSectionPos.getSectionCoord(MathHelper.floor(bounds.minY)); y <= maxY; y++) {
+                for (int z = ChunkSectionPos.getSectionCoord(MathHelper.floor(bounds.minZ)); z <= maxZ; z++) {
+                    long key = ChunkSectionPos.asLong(x, y, z);
+                    if (key == mesh.sectionPos || !mesh.coveredSections.add(key)) continue;
+                    coveringMeshes.computeIfAbsent(key, k -> new ReferenceArrayList<>(2)).add(mesh);
+                }
+            }
+        }
+    }
+
+    private void uncover(SectionMesh mesh) {
+        LongIterator iterator = mesh.coveredSections.iterator();
+        while (iterator.hasNext()) {
+            long key = iterator.nextLong();
+            ReferenceArrayList<SectionMesh> covering = coveringMeshes.get(key);
+            if (covering == null) continue;
+            covering.remove(mesh);
+            if (covering.isEmpty()) coveringMeshes.remove(key);
+        }
+        mesh.coveredSections.clear();
+    }
+
+    /**
+     * Frees the buffers of a mesh that is removed and unregisters it from the sections it covers.
+     */
+    private void forget(SectionMesh mesh) {
+        uncover(mesh);
+        mesh.close();
+    }
+
+    /**
+     * Frees all buffers and forgets all links, used when the world is left.
+     */
+    public void clear() {
+        for (SectionMesh mesh : sections.values()) {
+            mesh.close();
+        }
+        sections.clear();
+        coveringMeshes.clear();
+    }
+
+    /**
+     * The static links of a single chunk section and their vertex buffers.
+     */
+    private static class SectionMesh {
+        private final World world;
+        private final long sectionPos;
+        private final int originX, originY, originZ;
+        /**
+         * The other sections that the bounds of its links cover, see {@link #coveringMeshes}.
+         */
+        private final LongOpenHashSet coveredSections = new LongOpenHashSet();
+        private final ReferenceArrayList<ChainLink> links = new ReferenceArrayList<>(8);
+        private ReferenceArrayList<RenderLayer> layers = new ReferenceArrayList<>(0);
+        private ReferenceArrayList<VertexBuffer> buffers = new ReferenceArrayList<>(0);
+        private final LinkBounds bounds = new LinkBounds();
+        /**
+         * The level of detail of the current buffers, the section is rebuilt when the camera moves into another tier.
+         */
+        private ChainRenderer.Lod lod = ChainRenderer.Lod.FULL;
+        private boolean dirty = true;
+        /**
+         * Whether some links were baked with a placeholder because their model was still being built.
+         */
+        private boolean hasPlaceholders;
+        /**
+         * The {@link ChainRenderer#getBuiltModelCount()} at the last build.
+         */
+        private long builtModelCount;
+        /**
+         * The vertices of all buffers, for the {@link ChainRenderStats}.
+         */
+        private int vertexCount;
+
+        private SectionMesh(World world, long sectionPos) {
+            this.world = world;
+            this.sectionPos = sectionPos;
+            this.originX = ChunkSectionPos.getBlockCoord(ChunkSectionPos.unpackX(sectionPos));
+            this.originY = ChunkSectionPos.getBlockCoord(ChunkSectionPos.unpackY(sectionPos));
+            this.originZ = ChunkSectionPos.getBlockCoord(ChunkSectionPos.unpackZ(sectionPos));
+            // Until the first build the bounds are the section itself
+            bounds.minX = originX;
+            bounds.minY = originY;
+            bounds.minZ = originZ;
+            bounds.maxX = originX + 16;
+            bounds.maxY = originY + 16;
+            bounds.maxZ = originZ + 16;
+        }
+
+        private void draw(Matrix4f positionMatrix, Matrix4f projectionMatrix) {
+            for (int i = 0; i < layers.size(); i++) {
+                RenderLayer layer = layers.get(i);
+                VertexBuffer vertexBuffer = buffers.get(i);
+                layer.startDrawing();
+                ShaderProgram shader = RenderSystem.getShader();
+                if (shader != null) {
+                    vertexBuffer.bind();
+                    vertexBuffer.draw(positionMatrix, projectionMatrix, shader);
+                }
+                layer.endDrawing();
+            }
+        }
+
+        private void close() {
+            for (int i = 0; i < buffers.size(); i++) {
+                buffers.get(i).close();
+            }
+            layers.clear();
+            buffers.clear();
+        }
+    }
+}
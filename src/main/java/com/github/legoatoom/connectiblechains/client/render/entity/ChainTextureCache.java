@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.client.render.entity;
+
+import com.github.legoatoom.connectiblechains.util.Helper;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.fabric.api.resource.SimpleSynchronousResourceReloadListener;
+import net.minecraft.client.render.RenderLayer;
+import net.minecraft.item.Item;
+import net.minecraft.registry.Registries;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.util.Identifier;
+
+/**
+ * Resolves the textures and render layers of every chain type once, instead of building new identifiers
+ * for every link in every frame.
+ * The cache is cleared when the resources are reloaded, because the textures may have changed.
+ *
+ * @see ChainTextureManager
+ */
+@Environment(EnvType.CLIENT)
+public class ChainTextureCache implements SimpleSynchronousResourceReloadListener {
+    private final Reference2ObjectOpenHashMap<Item, Entry> entries = new Reference2ObjectOpenHashMap<>(16);
+
+    @Override
+    public Identifier getFabricId() {
+        return Helper.identifier("chain_texture_cache");
+    }
+
+    @Override
+    public void reload(ResourceManager manager) {
+        entries.clear();
+    }
+
+    /**
+     * @param item The item of the chain type
+     * @return The resolved textures and layers of the chain type
+     */
+    public Entry get(Item item) {
+        Entry entry = entries.get(item);
+        if (entry == null) {
+            entry = resolve(item);
+            entries.put(item, entry);
+        }
+        return entry;
+    }
+
+    private static Entry resolve(Item item) {
+        Identifier id = Registries.ITEM.getId(item);
+        Identifier knotTexture;
+        if (id.getNamespace().equals("mythicmetals_decorations")) {
+            knotTexture = new Identifier(id.getNamespace(), "textures/item/chain/" + id.getPath() + ".png");
+        } else {
+            knotTexture = new Identifier(id.getNamespace(), "textures/item/" + id.getPath() + ".png");
+        }
+        Identifier chainTexture = new Identifier(id.getNamespace(), "textures/block/" + id.getPath() + ".png");
+
+        return new Entry(chainTexture, knotTexture, ChainRenderLayer.getChain(chainTexture), ChainRenderLayer.getChainImmediate(chainTexture),
+                ChainRenderLayer.getChainInstanced(chainTexture), RenderLayer.getEntityCutoutNoCull(knotTexture));
+    }
+
+    /**
+     * The resolved textures of a chain type.
+     *
+     * @param chainTexture        The texture of the chain links
+     * @param knotTexture         The texture of the knot
+     * @param chainLayer          The layer of the chain links, see {@link ChainRenderLayer#getChain(Identifier)}
+     * @param immediateChainLayer The layer of chain links in the immediate entity buffers, see {@link ChainRenderLayer#getChainImmediate(Identifier)}
+     * @param instancedChainLayer The layer of instanced chain links, see {@link ChainRenderLayer#getChainInstanced(Identifier)}
+     * @param knotLayer           The layer of the knot model
+     */
+    public record Entry(Identifier chainTexture, Identifier knotTexture, RenderLayer chainLayer,
+                        RenderLayer immediateChainLayer, RenderLayer instancedChainLayer, RenderLayer knotLayer) {
+    }
+}
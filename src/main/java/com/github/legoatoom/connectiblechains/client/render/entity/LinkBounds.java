@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.client.render.entity;
+
+import com.github.legoatoom.connectiblechains.chain.ChainLink;
+import com.github.legoatoom.connectiblechains.util.Helper;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.render.Frustum;
+import net.minecraft.entity.Entity;
+import net.minecraft.entity.decoration.AbstractDecorationEntity;
+import net.minecraft.util.math.Box;
+import net.minecraft.util.math.Vec3d;
+
+/**
+ * A mutable bounding box around the chain of a link.
+ * It spans both ends and reaches down to the lowest point of the catenary, see {@link Helper#drip2Min}.
+ * The box is mutable so culling the links every frame does not allocate.
+ */
+@Environment(EnvType.CLIENT)
+public class LinkBounds {
+    /**
+     * Extra space around the box, so the width of the chain and the chain offset are accounted for.
+     */
+    private static final double MARGIN = 0.25;
+
+    public double minX, minY, minZ;
+    public double maxX, maxY, maxZ;
+
+    /**
+     * Sets the bounds to the chain of {@code link}.
+     * When the secondary can move, the box contains its position of the last and the current tick,
+     * so it is valid for every tick delta.
+     *
+     * @return this
+     */
+    public LinkBounds set(ChainLink link) {
+        Entity from = link.primary, to = link.secondary;
+        Vec3d fromOffset = from.getLeashOffset(), toOffset = to.getLeashOffset();
+        double srcX = from.getX() + fromOffset.x, srcY = from.getY() + fromOffset.y, srcZ = from.getZ() + fromOffset.z;
+        set(srcX, srcY, srcZ, to.getX() + toOffset.x, to.getY() + toOffset.y, to.getZ() + toOffset.z);
+        if (!(to instanceof AbstractDecorationEntity)) {
+            double minX = this.minX, minY = this.minY, minZ = this.minZ;
+            double maxX = this.maxX, maxY = this.maxY, maxZ = this.maxZ;
+            set(srcX, srcY, srcZ, to.prevX + toOffset.x, to.prevY + toOffset.y, to.prevZ + toOffset.z);
+            this.minX = Math.min(this.minX, minX);
+            this.minY = Math.min(this.minY, minY);
+            this.minZ = Math.min(this.minZ, minZ);
+            this.maxX = Math.max(this.maxX, maxX);
+            this.maxY = Math.max(this.maxY, maxY);
+            this.maxZ = Math.max(this.maxZ, maxZ);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the bounds to a chain from {@code (srcX, srcY, srcZ)} to {@code (dstX, dstY, dstZ)}.
+     *
+     * @return this
+     */
+    public LinkBounds set(double srcX, double srcY, double srcZ, double dstX, double dstY, double dstZ) {
+        double dX = dstX - srcX, dY = dstY - srcY, dZ = dstZ - srcZ;
+        double distance = Math.sqrt(dX * dX + dY * dY + dZ * dZ);
+        // drip2 is not defined for a chain without length
+        double lowestY = distance > 1e-6 ? srcY + Math.min(0, Helper.drip2Min(distance, dY)) : srcY;
+        minX = Math.min(srcX, dstX) - MARGIN;
+        minY = Math.min(lowestY, dstY) - MARGIN;
+        minZ = Math.min(srcZ, dstZ) - MARGIN;
+        maxX = Math.max(srcX, dstX) + MARGIN;
+        maxY = Math.max(srcY, dstY) + MARGIN;
+        maxZ = Math.max(srcZ, dstZ) + MARGIN;
+        return this;
+    }
+
+    /**
+     * Grows these bounds so they also contain {@code other}.
+     *
+     * @return this
+     */
+    public LinkBounds include(LinkBounds other) {
+        minX = Math.min(minX, other.minX);
+        minY = Math.min(minY, other.minY);
+        minZ = Math.min(minZ, other.minZ);
+        maxX = Math.max(maxX, other.maxX);
+        maxY = Math.max(maxY, other.maxY);
+        maxZ = Math.max(maxZ, other.maxZ);
+        return this;
+    }
+
+    public boolean isVisible(Frustum frustum) {
+        return frustum.isVisible(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    public Box toBox() {
+        return new Box(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.client.render.entity;
+
+import com.github.legoatoom.connectiblechains.chain.ChainLink;
+import com.mojang.blaze3d.systems.RenderSystem;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ReferenceArrayList;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.minecraft.client.gl.VertexBuffer;
+import net.minecraft.client.render.BufferBuilder;
+import net.minecraft.client.render.RenderLayer;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.LightType;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.WorldChunk;
+import org.jetbrains.annotations.Nullable;
+import org.joml.Matrix4f;
+
+/**
+ * Render data that belongs to a single {@link ChainLink}.
+ * For static links, where both ends are knots, the geometry can be uploaded into a persistent {@link VertexBuffer}.
+ * Drawing the link is then a single draw call with the model matrix of the link.
+ * <p>
+ * The buffer is freed when the link is destroyed on the client. Links whose entities are unloaded without being destroyed
+ * are cleaned up by {@link #releaseUnused()}.
+ * <p>
+ * The light levels at both ends of the link are cached as well. They are only sampled again when an end moves
+ * to another block or when the light of a chunk section that contains an end has changed, see {@link #invalidateLight}.
+ */
+@Environment(EnvType.CLIENT)
+public class LinkRenderData implements AutoCloseable {
+    /**
+     * All render data that currently owns a vertex buffer.
+     */
+    private static final ReferenceArrayList<LinkRenderData> BUFFERED = new ReferenceArrayList<>();
+    private static final Matrix4f IDENTITY_POSITION = new Matrix4f();
+    /**
+     * Used to fill the vertex buffers, the native memory is reused for every upload.
+     */
+    @Nullable
+    private static BufferBuilder uploadBuilder;
+    /**
+     * The version of the last light change of every loaded chunk section, by {@link ChunkSectionPos#asLong()}.
+     * Versions are taken from {@link #lastLightVersion}, so a section never gets a version again that it had before,
+     * not even after it was unloaded and its entry was removed.
+     */
+    private static final Long2IntOpenHashMap SECTION_LIGHT_VERSIONS = new Long2IntOpenHashMap();
+    private static int lastLightVersion = 0;
+    private static final BlockPos.Mutable LIGHT_POS = new BlockPos.Mutable();
+
+    private final ChainLink link;
+    @Nullable
+    private VertexBuffer vertexBuffer;
+    /**
+     * The model and light levels that are currently in the {@link #vertexBuffer}.
+     */
+    @Nullable
+    private ChainModel uploadedModel;
+    private int uploadedLight = -1;
+
+    /**
+     * The light levels that have been sampled at {@link #lightStartPos} and {@link #lightEndPos}.
+     */
+    private int light = -1;
+    private long lightStartPos, lightEndPos;
+    private int lightStartVersion, lightEndVersion;
+
+    /**
+     * The per-vertex light of {@link #vertexLightModel} for {@link #vertexLightLevels}.
+     */
+    @Nullable
+    private int[] vertexLight;
+    @Nullable
+    private ChainModel vertexLightModel;
+    private int vertexLightLevels = -1;
+
+    /**
+     * The geometry of the link when it can move, it is created when it is first needed.
+     */
+    @Nullable
+    private ChainRenderer.DynamicMesh dynamicMesh;
+
+    public LinkRenderData(ChainLink link) {
+        this.link = link;
+    }
+
+    /**
+     * Returns the light levels at both ends of the link, packed by {@link #packLight(int, int, int, int)}.
+     * The light is only sampled again when one of the positions has changed or the light of their sections was updated.
+     *
+     * @param startWorld The world of the primary entity
+     * @param startPos   The block position where the light of the start is sampled, see {@link BlockPos#asLong()}
+     * @param endWorld   The world of the secondary entity
+     * @param endPos     The block position where the light of the end is sampled
+     * @return The packed light levels
+     */
+    public int getLight(World startWorld, long startPos, World endWorld, long endPos) {
+        int startVersion = getLightVersion(startPos), endVersion = getLightVersion(endPos);
+        if (light == -1 || startPos != lightStartPos || endPos != lightEndPos
+                || startVersion != lightStartVersion || endVersion != lightEndVersion) {
+            LIGHT_POS.set(startPos);
+            int blockLight0 = startWorld.getLightLevel(LightType.BLOCK, LIGHT_POS);
+            int skyLight0 = startWorld.getLightLevel(LightType.SKY, LIGHT_POS);
+            LIGHT_POS.set(endPos);
+            int blockLight1 = endWorld.getLightLevel(LightType.BLOCK, LIGHT_POS);
+            int skyLight1 = endWorld.getLightLevel(LightType.SKY, LIGHT_POS);
+            light = packLight(blockLight0, blockLight1, skyLight0, skyLight1);
+            lightStartPos = startPos;
+            lightEndPos = endPos;
+            lightStartVersion = startVersion;
+            lightEndVersion = endVersion;
+        }
+        return light;
+    }
+
+    private static int getLightVersion(long blockPos) {
+        return SECTION_LIGHT_VERSIONS.get(ChunkSectionPos.fromBlockPos(blockPos));
+    }
+
+    /**
+     * Returns the light of every vertex of {@code model}.
+     * The result is kept until the model or the light levels change, so the interpolation is not repeated every frame.
+     *
+     * @param model A model that is reused for multiple frames, usually a cached one
+     * @param light The light levels at both ends, see {@link #getLight}
+     * @return The packed lightmap coordinates of every vertex, the array must not be modified
+     */
+    public int[] getVertexLight(ChainModel model, int light) {
+        if (vertexLight == null || vertexLightModel != model || vertexLightLevels != light) {
+            vertexLight = model.computeVertexLight(light, vertexLight);
+            vertexLightModel = model;
+            vertexLightLevels = light;
+        }
+        return vertexLight;
+    }
+
+    /**
+     * @return The reusable geometry of a link that can move
+     */
+    public ChainRenderer.DynamicMesh getDynamicMesh() {
+        if (dynamicMesh == null) dynamicMesh = new ChainRenderer.DynamicMesh();
+        return dynamicMesh;
+    }
+
+    /**
+     * @return The model that was last drawn for this link, it can be drawn while a new model is being built
+     */
+    @Nullable
+    public ChainModel getLastModel() {
+        return vertexLightModel;
+    }
+
+    /**
+     * Draws {@code model} using the persistent vertex buffer of this link.
+     * The buffer is only (re-)uploaded when the model or the light levels have changed.
+     *
+     * @param layer          The render layer that sets up the render state
+     * @param model          The baked model of the link
+     * @param positionMatrix The transformation of the link
+     * @param light          The light levels at both ends, see {@link #getLight}
+     */
+    public void drawBuffered(RenderLayer layer, ChainModel model, Matrix4f positionMatrix, int light) {
+        if (vertexBuffer == null || uploadedModel != model || uploadedLight != light) {
+            upload(layer, model, light);
+            uploadedModel = model;
+            uploadedLight = light;
+        }
+
+        layer.startDrawing();
+        vertexBuffer.bind();
+        vertexBuffer.draw(positionMatrix, RenderSystem.getProjectionMatrix(), RenderSystem.getShader());
+        VertexBuffer.unbind();
+        layer.endDrawing();
+    }
+
+    private void upload(RenderLayer layer, ChainModel model, int light) {
+        if (uploadBuilder == null) uploadBuilder = new BufferBuilder(layer.getExpectedBufferSize());
+        uploadBuilder.begin(layer.getDrawMode(), layer.getVertexFormat());
+        // The model matrix is applied when drawing, the vertices stay in link space.
+        model.render(uploadBuilder, IDENTITY_POSITION, getVertexLight(model, light));
+        BufferBuilder.BuiltBuffer builtBuffer = uploadBuilder.end();
+
+        if (vertexBuffer == null) {
+            vertexBuffer = new VertexBuffer();
+            BUFFERED.add(this);
+        }
+        vertexBuffer.bind();
+        vertexBuffer.upload(builtBuffer);
+        VertexBuffer.unbind();
+    }
+
+    /**
+     * Light levels are 4 bit values, so all four of them fit into a single int.
+     */
+    public static int packLight(int blockLight0, int blockLight1, int skyLight0, int skyLight1) {
+        return blockLight0 | blockLight1 << 4 | skyLight0 << 8 | skyLight1 << 12;
+    }
+
+    /**
+     * Invalidates the cached light of all links with an end in the chunk section at {@code (x, y, z)}.
+     * The world renderer schedules a section rebuild for every light update, so that is where this is called.
+     */
+    public static void invalidateLight(int x, int y, int z) {
+        SECTION_LIGHT_VERSIONS.put(ChunkSectionPos.asLong(x, y, z), ++lastLightVersion);
+    }
+
+    /**
+     * Forgets the light changes of the sections of an unloaded chunk, so the versions don't pile up while the player travels.
+     * Used as client chunk unload callback.
+     */
+    public static void onChunkUnload(ClientWorld world, WorldChunk chunk) {
+        if (SECTION_LIGHT_VERSIONS.isEmpty()) return;
+        ChunkPos pos = chunk.getPos();
+        for (int y = world.getBottomSectionCoord(); y < world.getTopSectionCoord(); y++) {
+            SECTION_LIGHT_VERSIONS.remove(ChunkSectionPos.asLong(pos.x, y, pos.z));
+        }
+    }
+
+    /**
+     * Frees the vertex buffer, it will be recreated when the link is drawn again.
+     */
+    @Override
+    public void close() {
+        if (vertexBuffer != null) {
+            vertexBuffer.close();
+            vertexBuffer = null;
+            uploadedModel = null;
+            BUFFERED.remove(this);
+        }
+    }
+
+    /**
+     * Frees the buffers of links that are dead or whose entities have been removed, e.g. because they were unloaded.
+     */
+    public static void releaseUnused() {
+        BUFFERED.removeIf(data -> {
+            if (data.link.isDead() || data.link.needsBeDestroyed()) {
+                data.vertexBuffer.close();
+                data.vertexBuffer = null;
+                data.uploadedModel = null;
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Forgets the light changes of all sections, used when the world is left.
+     * The version counter is kept, so versions that links have cached are not given out again.
+     */
+    public static void clearLightVersions() {
+        SECTION_LIGHT_VERSIONS.clear();
+    }
+
+    /**
+     * Frees all buffers, used when the geometry of every chain changes or the world is left.
+     */
+    public static void releaseAll() {
+        for (LinkRenderData data : BUFFERED) {
+            data.vertexBuffer.close();
+            data.vertexBuffer = null;
+            data.uploadedModel = null;
+        }
+        BUFFERED.clear();
+    }
+}
@@ -27,12 +27,19 @@ import net.minecraft.client.MinecraftClient;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.math.MathHelper;
 
 @Config(name = ConnectibleChains.MODID)
 public class ModConfig implements ConfigData {
     @SuppressWarnings("UnnecessaryModifier")
     @ConfigEntry.Gui.Excluded
     private static final transient boolean IS_DEBUG_ENV = FabricLoader.getInstance().isDevelopmentEnvironment();
+    /**
+     * The bound of {@link #maxSegmentError}, AutoConfig only bounds integers.
+     */
+    @SuppressWarnings("UnnecessaryModifier")
+    @ConfigEntry.Gui.Excluded
+    private static final transient float MAX_SEGMENT_ERROR = 0.5F;
 
     @ConfigEntry.Gui.Tooltip(count = 3)
     private float chainHangAmount = 7.0F;
@@ -42,9 +49,32 @@ public class ModConfig implements ConfigData {
     @ConfigEntry.BoundedDiscrete(min = 1, max = 8)
     @ConfigEntry.Gui.Tooltip()
     private int quality = 4;
+    @ConfigEntry.Gui.Tooltip(count = 2)
+    private float maxSegmentError = 0.02F;
+    @ConfigEntry.BoundedDiscrete(min = 4, max = 256)
+    @ConfigEntry.Gui.Tooltip()
+    private int lodMediumDistance = 24;
+    @ConfigEntry.BoundedDiscrete(min = 4, max = 512)
+    @ConfigEntry.Gui.Tooltip(count = 2)
+    private int lodFarDistance = 64;
 
     @ConfigEntry.Gui.Tooltip()
     private boolean showToolTip = true;
+    @ConfigEntry.Gui.EnumHandler(option = ConfigEntry.Gui.EnumHandler.EnumDisplayOption.BUTTON)
+    @ConfigEntry.Gui.Tooltip(count = 4)
+    private StaticChainRendering staticChainRendering = StaticChainRendering.IMMEDIATE;
+    @ConfigEntry.Gui.Tooltip(count = 2)
+    private boolean showRenderStats = false;
+    @ConfigEntry.Gui.EnumHandler(option = ConfigEntry.Gui.EnumHandler.EnumDisplayOption.BUTTON)
+    @ConfigEntry.Gui.Tooltip(count = 3)
+    private CollisionMode collisionMode = CollisionMode.ENTITIES;
+    @ConfigEntry.BoundedDiscrete(max = 64)
+    @ConfigEntry.Gui.Tooltip(count = 2)
+    private int colliderActivationRange = 16;
+    @ConfigEntry.BoundedDiscrete(max = 1024)
+    @ConfigEntry.Gui.Tooltip(count = 2)
+    private int colliderSpawnBudget = 64;
+
     public float getChainHangAmount() {
         return chainHangAmount;
     }
@@ -72,6 +102,78 @@ public class ModConfig implements ConfigData {
         this.quality = quality;
     }
 
+    public float getMaxSegmentError() {
+        return MathHelper.clamp(maxSegmentError, 0, MAX_SEGMENT_ERROR);
+    }
+
+    @SuppressWarnings("unused")
+    public void setMaxSegmentError(float maxSegmentError) {
+        this.maxSegmentError = maxSegmentError;
+    }
+
+    public int getLodMediumDistance() {
+        return lodMediumDistance;
+    }
+
+    @SuppressWarnings("unused")
+    public void setLodMediumDistance(int lodMediumDistance) {
+        this.lodMediumDistance = lodMediumDistance;
+    }
+
+    public int getLodFarDistance() {
+        return lodFarDistance;
+    }
+
+    @SuppressWarnings("unused")
+    public void setLodFarDistance(int lodFarDistance) {
+        this.lodFarDistance = lodFarDistance;
+    }
+
+    public StaticChainRendering getStaticChainRendering() {
+        return staticChainRendering;
+    }
+
+    @SuppressWarnings("unused")
+    public void setStaticChainRendering(StaticChainRendering staticChainRendering) {
+        this.staticChainRendering = staticChainRendering;
+    }
+
+    public CollisionMode getCollisionMode() {
+        return collisionMode;
+    }
+
+    @SuppressWarnings("unused")
+    public void setCollisionMode(CollisionMode collisionMode) {
+        this.collisionMode = collisionMode;
+    }
+
+    public int getColliderActivationRange() {
+        return colliderActivationRange;
+    }
+
+    @SuppressWarnings("unused")
+    public void setColliderActivationRange(int colliderActivationRange) {
+        this.colliderActivationRange = colliderActivationRange;
+    }
+
+    public int getColliderSpawnBudget() {
+        return colliderSpawnBudget;
+    }
+
+    @SuppressWarnings("unused")
+    public void setColliderSpawnBudget(int colliderSpawnBudget) {
+        this.colliderSpawnBudget = colliderSpawnBudget;
+    }
+
+    public boolean doShowRenderStats() {
+        return showRenderStats;
+    }
+
+    @SuppressWarnings("unused")
+    public void setShowRenderStats(boolean showRenderStats) {
+        this.showRenderStats = showRenderStats;
+    }
+
     public boolean doDebugDraw() {
         return IS_DEBUG_ENV && MinecraftClient.getInstance().options.debugEnabled;
     }
@@ -89,18 +191,28 @@ public class ModConfig implements ConfigData {
     public PacketByteBuf writePacket() {
         PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
         buf.writeFloat(chainHangAmount);
+        buf.writeEnumConstant(collisionMode);
         return buf;
     }
 
     public void readPacket(PacketByteBuf buf) {
         this.chainHangAmount = buf.readFloat();
+        this.collisionMode = buf.readEnumConstant(CollisionMode.class);
     }
 
     public ModConfig copyFrom(ModConfig config) {
         this.chainHangAmount = config.chainHangAmount;
         this.maxChainRange = config.maxChainRange;
         this.quality = config.quality;
+        this.maxSegmentError = config.maxSegmentError;
+        this.lodMediumDistance = config.lodMediumDistance;
+        this.lodFarDistance = config.lodFarDistance;
         this.showToolTip = config.showToolTip;
+        this.staticChainRendering = config.staticChainRendering;
+        this.showRenderStats = config.showRenderStats;
+        this.collisionMode = config.collisionMode;
+        this.colliderActivationRange = config.colliderActivationRange;
+        this.colliderSpawnBudget = config.colliderSpawnBudget;
         return this;
     }
 
@@ -108,4 +220,43 @@ public class ModConfig implements ConfigData {
         return showToolTip;
     }
 
+    /**
+     * How links between two knots are drawn, these never change their shape.
+     */
+    public enum StaticChainRendering {
+        /**
+         * The vertices are written to the entity vertex buffers every frame.
+         */
+        IMMEDIATE,
+        /**
+         * The vertices are uploaded once into a vertex buffer that is owned by the link.
+         */
+        LINK_BUFFER,
+        /**
+         * The vertices of all links in a chunk section are uploaded into shared vertex buffers.
+         */
+        SECTION_BUFFER,
+        /**
+         * Links with the same geometry share one vertex buffer and are drawn with GPU instancing.
+         * Falls back to {@link #IMMEDIATE} when instancing is not supported.
+         */
+        INSTANCED
+    }
+
+    /**
+     * How the collision of links between two knots is created, the server decides this for all clients.
+     * The mode is applied when a link is created, existing links keep their collision until they are loaded again.
+     */
+    public enum CollisionMode {
+        /**
+         * Every link spawns {@link com.github.legoatoom.connectiblechains.entity.ChainCollisionEntity collision entities}.
+         */
+        ENTITIES,
+        /**
+         * The collision boxes are kept in a per-chunk index of the world,
+         * see {@link com.github.legoatoom.connectiblechains.chain.ChainCollisionIndex}.
+         */
+        VIRTUAL
+    }
+
 }
@@ -15,7 +15,9 @@
 package com.github.legoatoom.connectiblechains.entity;
 
 import com.github.legoatoom.connectiblechains.ConnectibleChains;
+import com.github.legoatoom.connectiblechains.chain.ChainGraph;
 import com.github.legoatoom.connectiblechains.chain.ChainLink;
+import com.github.legoatoom.connectiblechains.chain.HeldChainLinks;
 import com.github.legoatoom.connectiblechains.tag.CommonTags;
 import com.github.legoatoom.connectiblechains.util.NetworkingPackets;
 import com.github.legoatoom.connectiblechains.util.PacketCreator;
@@ -80,19 +82,36 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
      * a link to this as this is already removed. The second use is for /summon for basically the same reasons.
      */
     private static final byte GRACE_PERIOD = 100;
+    /**
+     * The offset where a leash / chain will visually connect to.
+     */
+    private static final Vec3d LEASH_OFFSET = new Vec3d(0, 4.5 / 16, 0);
     /**
      * All links that involve this knot (secondary and primary)
      */
     private final ObjectList<ChainLink> links = new ObjectArrayList<>();
     /**
-     * Links where the 'secondary' might not exist yet. Will be cleared after the grace period.
+     * Saved links that were read from NBT, they are decoded into {@link #pendingLinks} when the knot is loaded into the world.
      */
     private final ObjectList<NbtElement> incompleteLinks = new ObjectArrayList<>();
+    /**
+     * Links where the 'secondary' is not loaded yet, they are resolved by the {@link PendingChainLinks} of the world.
+     */
+    final ObjectList<PendingChainLinks.PendingLink> pendingLinks = new ObjectArrayList<>();
     private final static String SOURCE_ITEM_KEY = "SourceItem";
     /**
      * Increments each tick, when it reached 100 it resets and checks {@link #canStayAttached()}.
+     * Starts at a random value so knots that were placed together don't check in the same tick.
      */
-    private int obstructionCheckTimer = 0;
+    private int obstructionCheckTimer = random.nextInt(100);
+    /**
+     * Set when the knot wakes up, {@link #canStayAttached()} is then checked in the next tick.
+     */
+    private boolean needsAttachmentCheck = true;
+    /**
+     * A dormant knot skips its server tick, see {@link #wake()}.
+     */
+    private boolean dormant = false;
     /**
      * The chain type, used for rendering
      */
@@ -106,6 +125,11 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
      */
     @Environment(EnvType.CLIENT)
     private BlockState attachTarget;
+    /**
+     * Whether this knot is in the {@link ChainKnotIndex} of its world and the key it is stored with.
+     */
+    boolean indexed = false;
+    long indexedPos;
 
     public ChainKnotEntity(EntityType<? extends ChainKnotEntity> entityType, World world) {
         super(entityType, world);
@@ -125,6 +149,10 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
     @Override
     public void setPosition(double x, double y, double z) {
         super.setPosition((double) MathHelper.floor(x) + 0.5D, (double) MathHelper.floor(y) + 0.5D, (double) MathHelper.floor(z) + 0.5D);
+        if (indexed && ChainKnotIndex.of(getWorld()).update(this) && getWorld() instanceof ServerWorld serverWorld) {
+            ChainGraph.of(serverWorld).update(this);
+        }
+        wake();
     }
 
     public Item getChainItemSource() {
@@ -159,9 +187,9 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
      * On the server it:
      * <ol>
      * <li>Checks if its in the void and deletes itself.</li>
-     * <li>Tries to convert incomplete links</li>
      * <li>Updates the chains, see {@link #updateLinks()}</li>
      * <li>Removes any dead links, and, when outside the grace period, itself if none are left.</li>
+     * <li>Becomes dormant when nothing can change without an event, see {@link #wake()}.</li>
      * </ol>
      */
     @Override
@@ -172,29 +200,120 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
             attachTarget = getWorld().getBlockState(attachmentPos);
             return;
         }
+        if (dormant) return;
         attemptTickInVoid();
 
-        boolean anyConverted = convertIncompleteLinks();
         updateLinks();
         removeDeadLinks();
 
-        if (graceTicks < 0 || (anyConverted && incompleteLinks.isEmpty())) {
+        if (graceTicks < 0) {
             graceTicks = 0;
-        } else if (graceTicks > 0) {
-            graceTicks--;
+        } else if (graceTicks > 0 && --graceTicks == 0) {
+            dropLostLinks();
         }
+
+        dormant = canBecomeDormant();
     }
 
     /**
-     * Will try to convert any {@link #incompleteLinks} using {@link #deserializeChainTag(NbtElement)}.
+     * A knot can become dormant when all of its links are between knots and there is nothing left to resolve.
+     * Links to players move every tick, so they need the per-tick range check.
      *
-     * @return true if any were converted
+     * @return true when the knot only has to do work again after {@link #wake()}
      */
-    private boolean convertIncompleteLinks() {
-        if (!incompleteLinks.isEmpty()) {
-            return incompleteLinks.removeIf(this::deserializeChainTag);
+    private boolean canBecomeDormant() {
+        if (isRemoved() || needsAttachmentCheck || graceTicks > 0 || !incompleteLinks.isEmpty()
+                || (links.isEmpty() && pendingLinks.isEmpty())) {
+            return false;
+        }
+        for (ChainLink link : links) {
+            if (!(link.secondary instanceof ChainKnotEntity)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Resumes the server tick of a dormant knot. It is called when:
+     * <ul>
+     * <li>the block at the {@link #attachmentPos} changes, see {@link com.github.legoatoom.connectiblechains.mixin.server.world.ServerWorldMixin}</li>
+     * <li>a link is added or destroyed, this includes links to players and resolved pending links</li>
+     * <li>a knot it is linked to is removed or unloaded, see {@link #wakeLinkedKnots(Entity, ServerWorld)}</li>
+     * <li>the knot moves or its chain type changes</li>
+     * </ul>
+     * The attachment is checked in the next tick.
+     */
+    public void wake() {
+        dormant = false;
+        needsAttachmentCheck = true;
+    }
+
+    /**
+     * Wakes the knots that are linked to a knot that was removed or unloaded,
+     * so they can destroy the links. Used as server entity unload callback.
+     */
+    public static void wakeLinkedKnots(Entity entity, ServerWorld world) {
+        if (!(entity instanceof ChainKnotEntity knot)) return;
+        for (ChainLink link : knot.links) {
+            link.primary.wake();
+            if (link.secondary instanceof ChainKnotEntity secondary) secondary.wake();
         }
-        return false;
+    }
+
+    /**
+     * Decodes the {@link #incompleteLinks} and links them to their secondary or adds them to {@code table}
+     * to wait for it. Called when the knot is loaded into the world and when its data is read while it is loaded.
+     */
+    void decodeIncompleteLinks(PendingChainLinks table) {
+        if (incompleteLinks.isEmpty()) return;
+        for (NbtElement element : incompleteLinks) {
+            if (!(element instanceof NbtCompound tag)) continue;
+            PendingChainLinks.PendingLink pending = decodeChainTag(tag);
+            if (pending != null) table.addOrResolve((ServerWorld) getWorld(), pending);
+        }
+        incompleteLinks.clear();
+        if (pendingLinks.isEmpty()) graceTicks = 0;
+    }
+
+    /**
+     * Called when a pending link was linked to its secondary.
+     * The grace period ends when no pending links are left.
+     */
+    void onPendingLinkResolved() {
+        if (pendingLinks.isEmpty()) graceTicks = 0;
+    }
+
+    /**
+     * Drops the pending links whose secondary can't be loaded anymore, called when the grace period ends.
+     * Links to players are dropped when the player is not online.
+     * Links to knots are kept while the entities of the chunk of the knot are not loaded, it is unknown whether the knot still exists.
+     * Those are dropped by the {@link PendingChainLinks} when the chunk is loaded later.
+     */
+    private void dropLostLinks() {
+        if (pendingLinks.isEmpty()) return;
+        ServerWorld world = (ServerWorld) getWorld();
+        PendingChainLinks table = PendingChainLinks.of(world);
+        pendingLinks.removeIf(pending -> {
+            if (pending.uuid() == null && !PendingChainLinks.isLoaded(world, ChunkPos.toLong(BlockPos.fromLong(pending.targetPos())))) {
+                return false;
+            }
+            table.remove(pending);
+            dropItem(pending.sourceItem());
+            onBreak(null);
+            return true;
+        });
+    }
+
+    /**
+     * Drops a pending link whose secondary knot doesn't exist anymore.
+     * The knot wakes up, so it removes itself when this was its last link.
+     */
+    void dropPendingLink(PendingChainLinks table, PendingChainLinks.PendingLink pending) {
+        table.remove(pending);
+        if (!pendingLinks.remove(pending)) return;
+        dropItem(pending.sourceItem());
+        onBreak(null);
+        onPendingLinkResolved();
+        wake();
     }
 
     /**
@@ -214,8 +333,9 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
             }
         }
 
-        if (obstructionCheckTimer++ == 100) {
+        if (needsAttachmentCheck || obstructionCheckTimer++ == 100) {
             obstructionCheckTimer = 0;
+            needsAttachmentCheck = false;
             if (!canStayAttached()) {
                 destroyLinks(true);
             }
@@ -224,7 +344,7 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
 
     /**
      * Removes any dead links and plays a break sound if any were removed.
-     * Removes itself when no {@link #links} or {@link #incompleteLinks} are left, and it's outside the grace period.
+     * Removes itself when no {@link #links} or {@link #pendingLinks} are left, and it's outside the grace period.
      */
     private void removeDeadLinks() {
         boolean playBreakSound = false;
@@ -235,64 +355,35 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
         if (playBreakSound) onBreak(null);
 
         links.removeIf(ChainLink::isDead);
-        if (links.isEmpty() && incompleteLinks.isEmpty() && graceTicks <= 0) {
+        if (links.isEmpty() && incompleteLinks.isEmpty() && pendingLinks.isEmpty() && graceTicks <= 0) {
             remove(RemovalReason.DISCARDED);
             // No break sound
         }
     }
 
     /**
-     * This method tries to connect to the secondary that is in the {@link #incompleteLinks}.
-     * If they do not exist yet, we try again later. If they do, make a connection and remove it from the tag.
-     * <br>
-     * When the grace period is over, we remove the tag from the {@link #incompleteLinks} and drop an item
-     * meaning that we cannot find the connection anymore, and we assume that it will not be loaded in the future.
+     * Decodes a saved link into a {@link PendingChainLinks.PendingLink}.
+     * The relative position of a secondary knot is turned into an absolute position here.
      *
-     * @param element the tag that contains a single connection.
-     * @return true if the tag has been used
-     * @see #updateLinks()
+     * @param tag the tag that contains a single connection.
+     * @return the decoded link or null when the tag is invalid
+     * @see #writeCustomDataToNbt(NbtCompound)
      */
-    private boolean deserializeChainTag(NbtElement element) {
-        if (element == null || getWorld().isClient()) {
-            return true;
-        }
-
-        assert element instanceof NbtCompound;
-        NbtCompound tag = (NbtCompound) element;
-
+    @Nullable
+    private PendingChainLinks.PendingLink decodeChainTag(NbtCompound tag) {
         Item source = Registries.ITEM.get(Identifier.tryParse(tag.getString(SOURCE_ITEM_KEY)));
 
         if (tag.contains("UUID")) {
-            UUID uuid = tag.getUuid("UUID");
-            Entity entity = ((ServerWorld) getWorld()).getEntity(uuid);
-            if (entity != null) {
-                ChainLink.create(this, entity, source);
-                return true;
-            }
+            return new PendingChainLinks.PendingLink(this, source, tag.getUuid("UUID"), 0, tag);
         } else if (tag.contains("RelX") || tag.contains("RelY") || tag.contains("RelZ")) {
             BlockPos blockPos = new BlockPos(tag.getInt("RelX"), tag.getInt("RelY"), tag.getInt("RelZ"));
             // Adjust position to be relative to our facing direction
             blockPos = getBlockPosAsFacingRelative(blockPos, Direction.fromRotation(this.getYaw()));
-            ChainKnotEntity entity = ChainKnotEntity.getKnotAt(getWorld(), blockPos.add(attachmentPos));
-            if (entity != null) {
-                ChainLink.create(this, entity, source);
-                return true;
-            }
-        } else {
-            ConnectibleChains.LOGGER.warn("Chain knot NBT is missing UUID or relative position.");
+            return new PendingChainLinks.PendingLink(this, source, null, blockPos.add(attachmentPos).asLong(), tag);
         }
 
-        // TODO: 18/11/2022 Issue #31 maybe here? It could be that we need to check if connection chunk is loaded or not.
-
-        // At the start the server and client need to tell each other the info.
-        // So we need to check if the object is old enough for these things to exist before we delete them.
-        if (graceTicks <= 0) {
-            dropItem(source);
-            onBreak(null);
-            return true;
-        }
-
-        return false;
+        ConnectibleChains.LOGGER.warn("Chain knot NBT is missing UUID or relative position.");
+        return null;
     }
 
     /**
@@ -322,6 +413,14 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
         for (ChainLink link : links) {
             link.destroy(mayDrop);
         }
+        if (!pendingLinks.isEmpty()) {
+            PendingChainLinks table = PendingChainLinks.of((ServerWorld) getWorld());
+            for (PendingChainLinks.PendingLink pending : pendingLinks) {
+                table.remove(pending);
+                if (mayDrop) dropItem(pending.sourceItem());
+            }
+            pendingLinks.clear();
+        }
         graceTicks = 0;
     }
 
@@ -345,6 +444,7 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
 
     /**
      * Searches for a knot at {@code pos} and returns it.
+     * This is a lookup in the {@link ChainKnotIndex} of the world, so it only finds loaded knots.
      *
      * @param world The world to search in.
      * @param pos   The position to search at.
@@ -352,16 +452,8 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
      */
     @Nullable
     public static ChainKnotEntity getKnotAt(World world, BlockPos pos) {
-        List<ChainKnotEntity> results = world.getNonSpectatingEntities(ChainKnotEntity.class,
-                Box.of(Vec3d.of(pos), 2, 2, 2));
-
-        for (ChainKnotEntity current : results) {
-            if (current.getDecorationBlockPos().equals(pos)) {
-                return current;
-            }
-        }
-
-        return null;
+        ChainKnotEntity knot = ChainKnotIndex.of(world).get(pos);
+        return knot != null && !knot.isRemoved() ? knot : null;
     }
 
     /**
@@ -470,6 +562,9 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
 
         // Write old, incomplete links
         linksTag.addAll(incompleteLinks);
+        for (PendingChainLinks.PendingLink pending : pendingLinks) {
+            linksTag.add(pending.tag());
+        }
 
         if (!linksTag.isEmpty()) {
             root.put("Chains", linksTag);
@@ -479,6 +574,10 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
     /**
      * Read all the data from {@link #writeCustomDataToNbt(NbtCompound)}
      * and stores the links in {@link #incompleteLinks}.
+     * <p>
+     * When the knot is already loaded, for example because its data is changed with a command, the load callback
+     * won't decode the links, so that is done here. The saved links replace the pending links,
+     * links that already exist are not created twice.
      *
      * @param root the tag to read from.
      */
@@ -487,6 +586,16 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
             incompleteLinks.addAll(root.getList("Chains", NbtElement.COMPOUND_TYPE));
         }
         chainItemSource = Registries.ITEM.get(Identifier.tryParse(root.getString(SOURCE_ITEM_KEY)));
+
+        if (indexed && getWorld() instanceof ServerWorld serverWorld) {
+            PendingChainLinks table = PendingChainLinks.of(serverWorld);
+            for (PendingChainLinks.PendingLink pending : pendingLinks) {
+                table.remove(pending);
+            }
+            pendingLinks.clear();
+            decodeIncompleteLinks(table);
+            wake();
+        }
     }
 
     @Override
@@ -513,7 +622,7 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
 
     @Override
     public Vec3d getLeashOffset() {
-        return new Vec3d(0, 4.5 / 16, 0);
+        return LEASH_OFFSET;
     }
 
     /**
@@ -522,7 +631,7 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
     @Environment(EnvType.CLIENT)
     @Override
     public Vec3d getLeashPos(float f) {
-        return getLerpedPos(f).add(0, 4.5 / 16, 0);
+        return getLerpedPos(f).add(LEASH_OFFSET);
     }
 
     @Override
@@ -641,6 +750,7 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
      */
     public void updateChainType(Item sourceItem) {
         this.chainItemSource = sourceItem;
+        wake();
 
         if (!getWorld().isClient()) {
             Collection<ServerPlayerEntity> trackingPlayers = PlayerLookup.around((ServerWorld) getWorld(), getBlockPos(), ChainKnotEntity.VISIBLE_RANGE);
@@ -657,23 +767,24 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
     /**
      * Searches for other {@link ChainKnotEntity ChainKnotEntities} that are in range of {@code target} and
      * have a link to {@code player}.
+     * The links are taken from the {@link HeldChainLinks} of the player, so no knots have to be searched.
      *
      * @param player the player wo tries to make a connection.
      * @param target center of the range
      * @return a list of all held chains that are in range of {@code target}
      */
     public static List<ChainLink> getHeldChainsInRange(PlayerEntity player, BlockPos target) {
-        Box searchBox = Box.of(Vec3d.of(target), getMaxRange() * 2, getMaxRange() * 2, getMaxRange() * 2);
-        List<ChainKnotEntity> otherKnots = player.getWorld().getNonSpectatingEntities(ChainKnotEntity.class, searchBox);
+        List<ChainLink> heldLinks = HeldChainLinks.of(player).getLinks();
+        if (heldLinks.isEmpty()) return List.of();
 
-        List<ChainLink> attachableLinks = new ArrayList<>();
+        Box searchBox = Box.of(Vec3d.of(target), getMaxRange() * 2, getMaxRange() * 2, getMaxRange() * 2);
+        List<ChainLink> attachableLinks = new ArrayList<>(heldLinks.size());
 
-        for (ChainKnotEntity source : otherKnots) {
-            for (ChainLink link : source.getLinks()) {
-                if (link.secondary != player) continue;
-                // We found a knot that is connected to the player.
-                attachableLinks.add(link);
-            }
+        for (int i = 0; i < heldLinks.size(); i++) {
+            ChainLink link = heldLinks.get(i);
+            ChainKnotEntity source = link.primary;
+            if (source.getWorld() != player.getWorld() || !searchBox.intersects(source.getBoundingBox())) continue;
+            attachableLinks.add(link);
         }
         return attachableLinks;
     }
@@ -723,5 +834,6 @@ public class ChainKnotEntity extends AbstractDecorationEntity implements ChainLi
 
     public void addLink(ChainLink link) {
         links.add(link);
+        wake();
     }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.entity;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The loaded knots of a world by the position of the block they are attached to.
+ * This replaces the entity query of {@link ChainKnotEntity#getKnotAt(World, BlockPos)} with a single hash lookup.
+ * <p>
+ * Every world has its own index, see {@link Holder}. Knots are added when they are loaded,
+ * removed when they are unloaded or removed and moved when their position changes.
+ *
+ * @see com.github.legoatoom.connectiblechains.mixin.world.WorldMixin
+ */
+public final class ChainKnotIndex {
+    private final Long2ObjectOpenHashMap<ChainKnotEntity> knots = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * @return The index of {@code world}
+     */
+    public static ChainKnotIndex of(World world) {
+        return ((Holder) world).connectiblechains$getKnotIndex();
+    }
+
+    /**
+     * Adds a knot that was just loaded, used as entity load callback.
+     */
+    public static void onEntityLoad(Entity entity, World world) {
+        if (entity instanceof ChainKnotEntity knot) of(world).add(knot);
+    }
+
+    /**
+     * Removes a knot that was unloaded or removed, used as entity unload callback.
+     */
+    public static void onEntityUnload(Entity entity, World world) {
+        if (entity instanceof ChainKnotEntity knot) of(world).remove(knot);
+    }
+
+    /**
+     * @param pos The position of the block that the knot is attached to
+     * @return The knot or null when no knot is loaded at {@code pos}
+     */
+    @Nullable
+    public ChainKnotEntity get(BlockPos pos) {
+        return knots.get(pos.asLong());
+    }
+
+    void add(ChainKnotEntity knot) {
+        long key = knot.getDecorationBlockPos().asLong();
+        knots.put(key, knot);
+        knot.indexed = true;
+        knot.indexedPos = key;
+    }
+
+    void remove(ChainKnotEntity knot) {
+        if (!knot.indexed) return;
+        // Another knot might have been placed at the same position before this one was unloaded
+        knots.remove(knot.indexedPos, knot);
+        knot.indexed = false;
+    }
+
+    /**
+     * Moves a knot whose position has changed, for example through a teleport command.
+     *
+     * @return true when the knot has moved to another block
+     */
+    boolean update(ChainKnotEntity knot) {
+        long key = knot.getDecorationBlockPos().asLong();
+        if (key == knot.indexedPos) return false;
+        remove(knot);
+        add(knot);
+        return true;
+    }
+
+    /**
+     * Implemented by every {@link World}.
+     */
+    public interface Holder {
+        ChainKnotIndex connectiblechains$getKnotIndex();
+    }
+}
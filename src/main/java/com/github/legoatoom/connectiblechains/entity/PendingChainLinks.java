@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.entity;
+
+import com.github.legoatoom.connectiblechains.chain.ChainLink;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.entity.Entity;
+import net.minecraft.item.Item;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.chunk.WorldChunk;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+
+/**
+ * The saved links of loaded knots whose 'secondary' is not loaded yet, by the position or UUID of the secondary.
+ * A pending link is resolved when its secondary is loaded, so knots don't have to search for it every tick.
+ * <p>
+ * Every server world has its own table, see {@link Holder}. The links of a knot are decoded and added when it is loaded
+ * and removed when it is unloaded. They stay in {@link ChainKnotEntity#pendingLinks} so that they are saved again.
+ * <p>
+ * When the entities of a chunk have been loaded and a link still waits for a knot in that chunk, the knot doesn't exist anymore.
+ * Such links are dropped, see {@link #tick(ServerWorld)}.
+ *
+ * @see com.github.legoatoom.connectiblechains.mixin.server.world.ServerWorldMixin
+ */
+public final class PendingChainLinks {
+    private final Long2ObjectOpenHashMap<ObjectArrayList<PendingLink>> byPos = new Long2ObjectOpenHashMap<>();
+    private final Object2ObjectOpenHashMap<UUID, ObjectArrayList<PendingLink>> byUuid = new Object2ObjectOpenHashMap<>();
+    /**
+     * Chunks that were loaded while links waited for a knot in them, by {@link ChunkPos#toLong()}.
+     * Their entities are loaded separately, so they are checked once that has happened.
+     */
+    private final LongOpenHashSet chunksToCheck = new LongOpenHashSet();
+    /**
+     * The links of {@link #byPos} by the chunk of the knot they wait for, by {@link ChunkPos#toLong()}.
+     */
+    private final Long2ObjectOpenHashMap<ObjectArrayList<PendingLink>> byChunk = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * @return The table of {@code world}
+     */
+    public static PendingChainLinks of(ServerWorld world) {
+        return ((Holder) world).connectiblechains$getPendingLinks();
+    }
+
+    /**
+     * Resolves the links that wait for {@code entity} and decodes the links of a knot, used as server entity load callback.
+     * Must run after {@link ChainKnotIndex#onEntityLoad} so the knots that are already loaded can be found.
+     */
+    public static void onEntityLoad(Entity entity, ServerWorld world) {
+        PendingChainLinks table = of(world);
+        table.resolveWaiting(table.byUuid.remove(entity.getUuid()), entity);
+        if (entity instanceof ChainKnotEntity knot) {
+            ObjectArrayList<PendingLink> waiting = table.byPos.remove(knot.getDecorationBlockPos().asLong());
+            if (waiting != null) {
+                for (PendingLink pending : waiting) {
+                    table.removeFromChunk(pending);
+                }
+            }
+            table.resolveWaiting(waiting, knot);
+            knot.decodeIncompleteLinks(table);
+        }
+    }
+
+    /**
+     * Removes the pending links of a knot that was unloaded or removed, used as server entity unload callback.
+     */
+    public static void onEntityUnload(Entity entity, ServerWorld world) {
+        if (!(entity instanceof ChainKnotEntity knot) || knot.pendingLinks.isEmpty()) return;
+        PendingChainLinks table = of(world);
+        for (PendingLink pending : knot.pendingLinks) {
+            table.remove(pending);
+        }
+    }
+
+    /**
+     * Remembers a loaded chunk when links wait for a knot in it, used as server chunk load callback.
+     */
+    public static void onChunkLoad(ServerWorld world, WorldChunk chunk) {
+        PendingChainLinks table = of(world);
+        long chunkPos = chunk.getPos().toLong();
+        if (table.byChunk.containsKey(chunkPos)) table.chunksToCheck.add(chunkPos);
+    }
+
+    /**
+     * Forgets a chunk that was unloaded before it was checked, used as server chunk unload callback.
+     */
+    public static void onChunkUnload(ServerWorld world, WorldChunk chunk) {
+        of(world).chunksToCheck.remove(chunk.getPos().toLong());
+    }
+
+    /**
+     * Drops the links that wait for a knot in a remembered chunk whose entities have been loaded, used as end world tick callback.
+     * Every knot of the chunk has been loaded and has resolved the links that waited for it at that point,
+     * so the knots of the remaining links don't exist anymore.
+     */
+    public static void tick(ServerWorld world) {
+        PendingChainLinks table = of(world);
+        if (table.chunksToCheck.isEmpty()) return;
+        LongIterator iterator = table.chunksToCheck.iterator();
+        while (iterator.hasNext()) {
+            long chunkPos = iterator.nextLong();
+            if (!isLoaded(world, chunkPos)) continue;
+            iterator.remove();
+            table.dropLostLinks(world, chunkPos);
+        }
+    }
+
+    /**
+     * @param chunkPos The chunk, as {@link ChunkPos#toLong()}
+     * @return true when the entities of the chunk have been loaded, so a knot in it would be in the {@link ChainKnotIndex}
+     */
+    static boolean isLoaded(ServerWorld world, long chunkPos) {
+        return world.isChunkLoaded(chunkPos);
+    }
+
+    /**
+     * @param pos A block position, as {@link BlockPos#asLong()}
+     * @return The chunk that contains {@code pos}, as {@link ChunkPos#toLong()}
+     */
+    private static long chunkOf(long pos) {
+        return ChunkPos.toLong(ChunkSectionPos.getSectionCoord(BlockPos.unpackLongX(pos)), ChunkSectionPos.getSectionCoord(BlockPos.unpackLongZ(pos)));
+    }
+
+    private void removeFromChunk(PendingLink pending) {
+        long chunkPos = chunkOf(pending.targetPos);
+        ObjectArrayList<PendingLink> list = byChunk.get(chunkPos);
+        if (list == null) return;
+        list.remove(pending);
+        if (list.isEmpty()) byChunk.remove(chunkPos);
+    }
+
+    private void dropLostLinks(ServerWorld world, long chunkPos) {
+        ObjectArrayList<PendingLink> waiting = byChunk.get(chunkPos);
+        if (waiting == null) return;
+        // Dropping removes the links from the table, so the list is copied
+        for (PendingLink pending : waiting.toArray(new PendingLink[0])) {
+            if (ChainKnotEntity.getKnotAt(world, BlockPos.fromLong(pending.targetPos)) != null) continue;
+            pending.owner.dropPendingLink(this, pending);
+        }
+    }
+
+    /**
+     * Links to the secondary right away when it is loaded, otherwise waits for it.
+     */
+    void addOrResolve(ServerWorld world, PendingLink pending) {
+        Entity target = pending.uuid != null
+                ? world.getEntity(pending.uuid)
+                : ChainKnotEntity.getKnotAt(world, BlockPos.fromLong(pending.targetPos));
+        if (target != null && !target.isRemoved()) {
+            ChainLink.create(pending.owner, target, pending.sourceItem);
+            return;
+        }
+
+        pending.owner.pendingLinks.add(pending);
+        if (pending.uuid != null) {
+            byUuid.computeIfAbsent(pending.uuid, key -> new ObjectArrayList<>(1)).add(pending);
+        } else {
+            byPos.computeIfAbsent(pending.targetPos, key -> new ObjectArrayList<>(1)).add(pending);
+            long chunkPos = chunkOf(pending.targetPos);
+            byChunk.computeIfAbsent(chunkPos, key -> new ObjectArrayList<>(1)).add(pending);
+            // The chunk load callback has already passed for a loaded chunk
+            if (world.getChunkManager().isChunkLoaded(ChunkPos.getPackedX(chunkPos), ChunkPos.getPackedZ(chunkPos))) {
+                chunksToCheck.add(chunkPos);
+            }
+        }
+    }
+
+    void remove(PendingLink pending) {
+        ObjectArrayList<PendingLink> list = pending.uuid != null ? byUuid.get(pending.uuid) : byPos.get(pending.targetPos);
+        if (list == null || !list.remove(pending)) return;
+        if (pending.uuid == null) removeFromChunk(pending);
+        if (list.isEmpty()) {
+            if (pending.uuid != null) byUuid.remove(pending.uuid);
+            else byPos.remove(pending.targetPos);
+        }
+    }
+
+    private void resolveWaiting(@Nullable ObjectArrayList<PendingLink> waiting, Entity target) {
+        if (waiting == null) return;
+        for (PendingLink pending : waiting) {
+            ChainKnotEntity owner = pending.owner;
+            if (owner.isRemoved() || owner == target) continue;
+            owner.pendingLinks.remove(pending);
+            ChainLink.create(owner, target, pending.sourceItem);
+            owner.onPendingLinkResolved();
+        }
+    }
+
+    /**
+     * A saved link, decoded once when its knot is loaded.
+     *
+     * @param owner      The knot that saved the link, the primary of the link
+     * @param sourceItem The type of the link
+     * @param uuid       The UUID of the secondary or null when the secondary is a knot
+     * @param targetPos  The position of the block that the secondary knot is attached to, as {@link BlockPos#asLong()}
+     * @param tag        The saved tag, it is written back unchanged when the knot is saved before the link is resolved
+     */
+    record PendingLink(ChainKnotEntity owner, Item sourceItem, @Nullable UUID uuid, long targetPos, NbtCompound tag) {
+    }
+
+    /**
+     * Implemented by every {@link ServerWorld}.
+     */
+    public interface Holder {
+        PendingChainLinks connectiblechains$getPendingLinks();
+    }
+}
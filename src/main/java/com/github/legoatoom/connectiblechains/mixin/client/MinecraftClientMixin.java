@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.mixin.client;
+
+import com.github.legoatoom.connectiblechains.client.ChainInteractionHandler;
+import net.minecraft.client.MinecraftClient;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Shadow;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+/**
+ * Mixin is used to attack and use links with virtual collision, which the crosshair can not target.
+ *
+ * @see ChainInteractionHandler
+ */
+@Mixin(MinecraftClient.class)
+public abstract class MinecraftClientMixin {
+    @Shadow
+    protected int attackCooldown;
+    @Shadow
+    private int itemUseCooldown;
+
+    @Inject(
+            method = "doAttack",
+            at = @At(value = "HEAD"),
+            cancellable = true
+    )
+    private void attackChain(CallbackInfoReturnable<Boolean> cir) {
+        if (attackCooldown > 0) return;
+        if (ChainInteractionHandler.tryAttack((MinecraftClient) (Object) this)) {
+            cir.setReturnValue(true);
+        }
+    }
+
+    @Inject(
+            method = "doItemUse",
+            at = @At(value = "HEAD"),
+            cancellable = true
+    )
+    private void useChain(CallbackInfo ci) {
+        if (ChainInteractionHandler.tryUse((MinecraftClient) (Object) this)) {
+            itemUseCooldown = 4;
+            ci.cancel();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.mixin.client.gui;
+
+import com.github.legoatoom.connectiblechains.ConnectibleChains;
+import com.github.legoatoom.connectiblechains.client.ClientInitializer;
+import net.minecraft.client.gui.hud.DebugHud;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.util.List;
+
+/**
+ * Mixin is used to show the chain render statistics on the F3 screen when they are enabled in the config.
+ *
+ * @see com.github.legoatoom.connectiblechains.client.render.entity.ChainRenderStats
+ */
+@Mixin(DebugHud.class)
+public abstract class DebugHudMixin {
+
+    @Inject(
+            method = "getLeftText",
+            at = @At(value = "RETURN")
+    )
+    private void addChainRenderStats(CallbackInfoReturnable<List<String>> cir) {
+        if (!ConnectibleChains.fileConfig.doShowRenderStats()) return;
+        ClientInitializer.getInstance().getChainRenderStats().appendDebugText(cir.getReturnValue());
+    }
+}
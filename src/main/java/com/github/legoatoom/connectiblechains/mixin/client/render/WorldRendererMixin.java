@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.mixin.client.render;
+
+import com.github.legoatoom.connectiblechains.client.ClientInitializer;
+import com.github.legoatoom.connectiblechains.client.render.entity.LinkRenderData;
+import net.minecraft.client.render.WorldRenderer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Mixin is used to rebuild the chain section buffers whenever the chunk section itself is rebuilt.
+ * <p>
+ * The light of the chains is baked into the section buffers, so they have to be updated when blocks or the light change.
+ * The same event invalidates the light that is cached per link.
+ *
+ * @see com.github.legoatoom.connectiblechains.client.render.entity.ChainSectionRenderer
+ */
+@Mixin(WorldRenderer.class)
+public abstract class WorldRendererMixin {
+
+    @Inject(
+            method = "scheduleChunkRender",
+            at = @At(value = "HEAD")
+    )
+    private void markChainSectionDirty(int x, int y, int z, boolean important, CallbackInfo ci) {
+        ClientInitializer.getInstance().getChainSectionRenderer().markDirty(x, y, z);
+        LinkRenderData.invalidateLight(x, y, z);
+    }
+}
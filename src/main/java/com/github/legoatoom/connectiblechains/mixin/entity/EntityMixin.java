@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.mixin.entity;
+
+import com.github.legoatoom.connectiblechains.chain.ChainCollisionIndex;
+import net.minecraft.entity.Entity;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.shape.VoxelShape;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.ModifyVariable;
+
+import java.util.List;
+
+/**
+ * Mixin is used to let entities collide with the virtual collision of chains.
+ * <p>
+ * The boxes are added to the collisions with other entities, so they behave exactly like
+ * {@link com.github.legoatoom.connectiblechains.entity.ChainCollisionEntity collision entities}.
+ *
+ * @see ChainCollisionIndex
+ */
+@Mixin(Entity.class)
+public abstract class EntityMixin {
+
+    @ModifyVariable(
+            method = "adjustMovementForCollisions(Lnet/minecraft/util/math/Vec3d;)Lnet/minecraft/util/math/Vec3d;",
+            at = @At(value = "STORE")
+    )
+    private List<VoxelShape> addChainCollisions(List<VoxelShape> entityCollisions, Vec3d movement) {
+        Entity self = (Entity) (Object) this;
+        return ChainCollisionIndex.of(self.getWorld()).addCollisions(self, self.getBoundingBox().stretch(movement), entityCollisions);
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.mixin.entity;
+
+import com.github.legoatoom.connectiblechains.chain.HeldChainLinks;
+import net.minecraft.entity.player.PlayerEntity;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+
+/**
+ * Mixin is used to give every player a list of the chain links they are holding.
+ */
+@Mixin(PlayerEntity.class)
+public abstract class PlayerEntityMixin implements HeldChainLinks.Holder {
+    @Unique
+    private final HeldChainLinks heldLinks = new HeldChainLinks();
+
+    @Override
+    public HeldChainLinks connectiblechains$getHeldLinks() {
+        return heldLinks;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.mixin.server.world;
+
+import com.github.legoatoom.connectiblechains.chain.ChainGraph;
+import com.github.legoatoom.connectiblechains.entity.ChainKnotEntity;
+import com.github.legoatoom.connectiblechains.entity.ChainKnotIndex;
+import com.github.legoatoom.connectiblechains.entity.PendingChainLinks;
+import net.minecraft.block.BlockState;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Mixin is used to give every server world its own {@link ChainGraph} and {@link PendingChainLinks}
+ * and to wake a dormant knot when the block it is attached to changes.
+ *
+ * @see ChainKnotEntity#wake()
+ */
+@Mixin(ServerWorld.class)
+public abstract class ServerWorldMixin implements ChainGraph.Holder, PendingChainLinks.Holder {
+    @Unique
+    private final ChainGraph chainGraph = new ChainGraph();
+    @Unique
+    private final PendingChainLinks pendingLinks = new PendingChainLinks();
+
+    @Override
+    public ChainGraph connectiblechains$getChainGraph() {
+        return chainGraph;
+    }
+
+    @Override
+    public PendingChainLinks connectiblechains$getPendingLinks() {
+        return pendingLinks;
+    }
+
+    @Inject(
+            method = "onBlockChanged",
+            at = @At(value = "HEAD")
+    )
+    private void wakeAttachedKnot(BlockPos pos, BlockState oldBlock, BlockState newBlock, CallbackInfo ci) {
+        ChainKnotEntity knot = ChainKnotIndex.of((ServerWorld) (Object) this).get(pos);
+        if (knot != null) knot.wake();
+    }
+}
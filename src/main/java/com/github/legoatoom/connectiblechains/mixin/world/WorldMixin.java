@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.mixin.world;
+
+import com.github.legoatoom.connectiblechains.chain.ChainCollisionIndex;
+import com.github.legoatoom.connectiblechains.entity.ChainKnotIndex;
+import net.minecraft.world.World;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.Unique;
+
+/**
+ * Mixin is used to give every world its own {@link ChainKnotIndex} and {@link ChainCollisionIndex}.
+ * <p>
+ * The server and the client world of a singleplayer game are used by different threads,
+ * so the indices are stored in the world instead of shared maps.
+ */
+@Mixin(World.class)
+public abstract class WorldMixin implements ChainKnotIndex.Holder, ChainCollisionIndex.Holder {
+    @Unique
+    private final ChainKnotIndex knotIndex = new ChainKnotIndex();
+    @Unique
+    private final ChainCollisionIndex collisionIndex = new ChainCollisionIndex();
+
+    @Override
+    public ChainKnotIndex connectiblechains$getKnotIndex() {
+        return knotIndex;
+    }
+
+    @Override
+    public ChainCollisionIndex connectiblechains$getCollisionIndex() {
+        return collisionIndex;
+    }
+}
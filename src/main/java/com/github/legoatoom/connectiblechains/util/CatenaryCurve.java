@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.util;
+
+import com.github.legoatoom.connectiblechains.ConnectibleChains;
+import net.minecraft.util.math.MathHelper;
+
+/**
+ * The curve of a hanging chain, it is the same curve as {@link Helper#drip2} but the constants that
+ * only depend on the chain are computed once instead of for every point.
+ * <p>
+ * For geogebra:
+ * a = 9
+ * h = 0
+ * d = 5
+ * p1 = a * asinh( (h / (2*a)) * 1 / sinh(d / (2*a)) )
+ * p2 = -a * cosh( (2*p1 - d) / (2*a) )
+ * f(x) = p2 + a * cosh( (2*x + 2*p1 - d) / (2*a) )
+ * <p>
+ * With c = (2*p1 - d) / (2*a) this is f(x) = p2 + a * cosh(x / a + c), which is what is evaluated here.
+ * The curve is used by the chain renderer and for the placement of the colliders, so both agree on where the chain is.
+ */
+public final class CatenaryCurve {
+    private final double a;
+    private final double d;
+    private final double h;
+    private final double p1;
+    private final double p2;
+    private final double c;
+    private final double sinhC;
+
+    /**
+     * @param d length of the chain
+     * @param h height at x=d
+     * @param a the hang amount, see {@link com.github.legoatoom.connectiblechains.config.ModConfig#getChainHangAmount()}
+     */
+    public CatenaryCurve(double d, double h, double a) {
+        this.a = a;
+        this.d = d;
+        this.h = h;
+        this.p1 = a * asinh((h / (2D * a)) * (1D / Math.sinh(d / (2D * a))));
+        this.c = (2D * p1 - d) / (2D * a);
+        this.p2 = -a * Math.cosh(c);
+        this.sinhC = Math.sinh(c);
+    }
+
+    /**
+     * Creates the curve with the hang amount of the {@link ConnectibleChains#runtimeConfig runtime config}.
+     *
+     * @param d length of the chain
+     * @param h height at x=d
+     * @return the curve
+     */
+    public static CatenaryCurve of(double d, double h) {
+        return new CatenaryCurve(d, h, ConnectibleChains.runtimeConfig.getChainHangAmount());
+    }
+
+    /**
+     * @param x from 0 to d
+     * @return y
+     */
+    public double y(double x) {
+        return p2 + a * Math.cosh(x / a + c);
+    }
+
+    /**
+     * Derivative of {@link #y}
+     *
+     * @param x from 0 to d
+     * @return gradient at x
+     */
+    public double slope(double x) {
+        return Math.sinh(x / a + c);
+    }
+
+    /**
+     * The length of the curve from 0 to {@code x}.
+     * The arc length of a * cosh(x / a + c) is a * sinh(x / a + c), so no integration is necessary.
+     *
+     * @param x from 0 to d
+     * @return the length along the curve
+     */
+    public double arcLength(double x) {
+        return a * (Math.sinh(x / a + c) - sinhC);
+    }
+
+    /**
+     * The inverse of {@link #arcLength}.
+     *
+     * @param s the length along the curve
+     * @return the x where the length along the curve is {@code s}
+     */
+    public double xAtArcLength(double s) {
+        return a * (asinh(s / a + sinhC) - c);
+    }
+
+    /**
+     * The lowest point of the curve between 0 and d.
+     * That is where the derivative is zero, or one of the ends when that point is outside the chain.
+     *
+     * @return the x of the lowest point
+     */
+    public double lowestX() {
+        return MathHelper.clamp(d / 2D - p1, 0D, d);
+    }
+
+    /**
+     * @return the lowest y between 0 and d
+     */
+    public double lowestY() {
+        return y(lowestX());
+    }
+
+    /**
+     * @return the hang amount
+     */
+    public double getA() {
+        return a;
+    }
+
+    /**
+     * @return the length of the chain
+     */
+    public double getD() {
+        return d;
+    }
+
+    /**
+     * @return the height at x=d
+     */
+    public double getH() {
+        return h;
+    }
+
+    static double asinh(double x) {
+        return Math.log(x + Math.sqrt(x * x + 1.0));
+    }
+}
@@ -16,6 +16,7 @@ package com.github.legoatoom.connectiblechains.util;
 
 import com.github.legoatoom.connectiblechains.ConnectibleChains;
 import net.minecraft.util.Identifier;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.math.Vec3d;
 import org.joml.Vector3f;
 
@@ -34,44 +35,45 @@ public class Helper {
     }
 
     /**
-     * For geogebra:
-     * a = 9
-     * h = 0
-     * d = 5
-     * p1 = a * asinh( (h / (2*a)) * 1 / sinh(d / (2*a)) )
-     * p2 = -a * cosh( (2*p1 - d) / (2*a) )
-     * f(x) = p2 + a * cosh( (2*x + 2*p1 - d) / (2*a) )
-     *
      * @param x from 0 to d
      * @param d length of the chain
      * @param h height at x=d
      * @return y
+     * @deprecated Use {@link CatenaryCurve#y}, it computes the constants of the chain only once.
      */
+    @Deprecated
     public static double drip2(double x, double d, double h) {
-        double a = ConnectibleChains.runtimeConfig.getChainHangAmount();
-        double p1 = a * asinh((h / (2D * a)) * (1D / Math.sinh(d / (2D * a))));
-        double p2 = -a * Math.cosh((2D * p1 - d) / (2D * a));
-        return p2 + a * Math.cosh((((2D * x) + (2D * p1)) - d) / (2D * a));
+        return CatenaryCurve.of(d, h).y(x);
     }
 
-    private static double asinh(double x) {
-        return Math.log(x + Math.sqrt(x * x + 1.0));
+    /**
+     * The lowest point of the catenary between 0 and {@code d}, see {@link CatenaryCurve#lowestY()}.
+     * This is evaluated for every link in every frame, so it does not create a curve.
+     *
+     * @param d length of the chain
+     * @param h height at x=d
+     * @return the lowest y
+     */
+    public static double drip2Min(double d, double h) {
+        double a = ConnectibleChains.runtimeConfig.getChainHangAmount();
+        double p1 = a * CatenaryCurve.asinh((h / (2D * a)) * (1D / Math.sinh(d / (2D * a))));
+        double c = (2D * p1 - d) / (2D * a);
+        double x = MathHelper.clamp(d / 2D - p1, 0D, d);
+        return a * (Math.cosh(x / a + c) - Math.cosh(c));
     }
 
     /**
      * Derivative of drip2
-     * For geogebra:
-     * f'(x) = sinh( (2*x + 2*p1 - d) / (2*a) )
      *
      * @param x from 0 to d
      * @param d length of the chain
      * @param h height at x=d
      * @return gradient at x
+     * @deprecated Use {@link CatenaryCurve#slope}, it computes the constants of the chain only once.
      */
+    @Deprecated
     public static double drip2prime(double x, double d, double h) {
-        double a = ConnectibleChains.runtimeConfig.getChainHangAmount();
-        double p1 = a * asinh((h / (2D * a)) * (1D / Math.sinh(d / (2D * a))));
-        return Math.sinh((2 * x + 2 * p1 - d) / (2 * a));
+        return CatenaryCurve.of(d, h).slope(x);
     }
 
     public static Vec3d middleOf(Vec3d a, Vec3d b) {
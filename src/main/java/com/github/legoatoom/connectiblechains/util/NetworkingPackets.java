@@ -26,5 +26,7 @@ public class NetworkingPackets {
     public static final Identifier S2C_SPAWN_CHAIN_KNOT_PACKET = Helper.identifier("s2c_spawn_chain_knot_packet_id");
     public static final Identifier S2C_KNOT_CHANGE_TYPE_PACKET = Helper.identifier("s2c_knot_change_type_packet_id");
     public static final Identifier S2C_CONFIG_SYNC_PACKET = Helper.identifier("s2c_config_sync_packet_id");
+    // ID for attacking or using the virtual collision of a link.
+    public static final Identifier C2S_CHAIN_INTERACT_PACKET = Helper.identifier("c2s_chain_interact_packet_id");
 
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.client.render.entity;
+
+import com.github.legoatoom.connectiblechains.ConnectibleChains;
+import com.github.legoatoom.connectiblechains.config.ModConfig;
+import net.minecraft.client.render.VertexConsumer;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures the bytes that the chain geometry path allocates per rendered link once it is warmed up.
+ * The links are written to a vertex consumer that discards everything, so only the chain code is measured.
+ * <p>
+ * The world and entity lookups of the knot renderer need a running client and are not covered.
+ */
+class ChainRenderAllocationTest {
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 10_000;
+    private static final int LIGHT = LinkRenderData.packLight(15, 3, 15, 7);
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final ChainRenderer chainRenderer = new ChainRenderer(new ChainRenderStats());
+    private final Matrix4f positionMatrix = new Matrix4f().translate(1, 2, 3).rotateY(0.5f);
+    private final Vector3f chainVec = new Vector3f();
+
+    @BeforeAll
+    static void setUpConfig() {
+        ConnectibleChains.runtimeConfig = new ModConfig();
+    }
+
+    @Test
+    void dynamicLinkAllocatesNothing() {
+        ChainRenderer.DynamicMesh mesh = new ChainRenderer.DynamicMesh();
+        Runnable renderLink = () -> {
+            chainVec.set(4.5f, -1.25f, 2f);
+            chainRenderer.render(DiscardingVertexConsumer.INSTANCE, positionMatrix, chainVec, ChainRenderer.Lod.FULL, mesh, LIGHT);
+        };
+        assertNoAllocation(renderLink);
+    }
+
+    @Test
+    void bakedLinkAllocatesNothing() throws InterruptedException {
+        ChainRenderer.BakeKey key = new ChainRenderer.BakeKey();
+        LinkRenderData renderData = new LinkRenderData(null);
+        Runnable renderLink = () -> {
+            key.set(0, 64, 0, 5, 62.5, 3, ChainRenderer.Lod.FULL);
+            chainVec.set(5f, -1.5f, 3f);
+            chainRenderer.renderBaked(DiscardingVertexConsumer.INSTANCE, positionMatrix, key, chainVec, renderData, LIGHT, true);
+        };
+
+        // The full model is built in the background, the far model is drawn until it is collected
+        renderLink.run();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (chainRenderer.getBuiltModelCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+            chainRenderer.collectBuiltModels();
+        }
+        assertTrue(chainRenderer.getBuiltModelCount() > 0, "the model was not built");
+
+        assertNoAllocation(renderLink);
+    }
+
+    @Test
+    void bakedLinkStripAllocatesNothing() {
+        ChainRenderer.BakeKey key = new ChainRenderer.BakeKey();
+        LinkRenderData renderData = new LinkRenderData(null);
+        // Far models are built right away, so the cache is warm after the first call
+        Runnable renderLink = () -> {
+            key.set(0, 64, 0, -3, 64, 6, ChainRenderer.Lod.FAR);
+            chainVec.set(-3f, 0f, 6f);
+            chainRenderer.renderBaked(DiscardingVertexConsumer.INSTANCE, positionMatrix, key, chainVec, renderData, LIGHT, false);
+        };
+        assertNoAllocation(renderLink);
+    }
+
+    /**
+     * Runs {@code renderLink} until it is compiled and asserts that it allocates less than one byte per call on average,
+     * so nothing is allocated per link. The average allows for allocations of the measurement itself.
+     */
+    private static void assertNoAllocation(Runnable renderLink) {
+        for (int i = 0; i < WARMUP; i++) {
+            renderLink.run();
+        }
+        long before = THREAD_BEAN.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            renderLink.run();
+        }
+        long allocated = THREAD_BEAN.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(allocated < ITERATIONS, () -> allocated + " bytes allocated for " + ITERATIONS + " links");
+    }
+
+    /**
+     * Accepts every vertex and keeps nothing.
+     */
+    private enum DiscardingVertexConsumer implements VertexConsumer {
+        INSTANCE;
+
+        @Override
+        public VertexConsumer vertex(double x, double y, double z) {
+            return this;
+        }
+
+        @Override
+        public VertexConsumer color(int red, int green, int blue, int alpha) {
+            return this;
+        }
+
+        @Override
+        public VertexConsumer texture(float u, float v) {
+            return this;
+        }
+
+        @Override
+        public VertexConsumer overlay(int u, int v) {
+            return this;
+        }
+
+        @Override
+        public VertexConsumer light(int u, int v) {
+            return this;
+        }
+
+        @Override
+        public VertexConsumer normal(float x, float y, float z) {
+            return this;
+        }
+
+        @Override
+        public void next() {
+        }
+
+        @Override
+        public void fixedColor(int red, int green, int blue, int alpha) {
+        }
+
+        @Override
+        public void unfixColor() {
+        }
+    }
+}
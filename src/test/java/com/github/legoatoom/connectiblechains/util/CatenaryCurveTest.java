@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2023 legoatoom
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.github.legoatoom.connectiblechains.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares {@link CatenaryCurve} with the original drip2 and drip2prime formulas of {@link Helper}
+ * and its arc length with a numeric integral.
+ */
+class CatenaryCurveTest {
+    private static final double[] HANG_AMOUNTS = {1, 4, 9, 32};
+    private static final double[] LENGTHS = {0.5, 3, 7.25, 16};
+    private static final double[] HEIGHTS = {-6, -1.5, 0, 0.75, 5};
+    private static final int STEPS = 16;
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    void yMatchesDrip2() {
+        for (double a : HANG_AMOUNTS) {
+            for (double d : LENGTHS) {
+                for (double h : HEIGHTS) {
+                    CatenaryCurve curve = new CatenaryCurve(d, h, a);
+                    for (int i = 0; i <= STEPS; i++) {
+                        double x = d * i / STEPS;
+                        assertEquals(drip2(x, d, h, a), curve.y(x), EPSILON, () -> describe(a, d, h, x));
+                    }
+                    assertEquals(0, curve.y(0), EPSILON, () -> describe(a, d, h, 0));
+                    assertEquals(h, curve.y(d), EPSILON * Math.max(1, Math.abs(h)), () -> describe(a, d, h, d));
+                }
+            }
+        }
+    }
+
+    @Test
+    void slopeMatchesDrip2prime() {
+        for (double a : HANG_AMOUNTS) {
+            for (double d : LENGTHS) {
+                for (double h : HEIGHTS) {
+                    CatenaryCurve curve = new CatenaryCurve(d, h, a);
+                    for (int i = 0; i <= STEPS; i++) {
+                        double x = d * i / STEPS;
+                        assertEquals(drip2prime(x, d, h, a), curve.slope(x), EPSILON, () -> describe(a, d, h, x));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void arcLengthMatchesIntegral() {
+        for (double a : HANG_AMOUNTS) {
+            for (double d : LENGTHS) {
+                for (double h : HEIGHTS) {
+                    CatenaryCurve curve = new CatenaryCurve(d, h, a);
+                    for (int i = 0; i <= STEPS; i++) {
+                        double x = d * i / STEPS;
+                        double expected = integrateArcLength(x, d, h, a);
+                        assertEquals(expected, curve.arcLength(x), 1e-7 * Math.max(1, expected), () -> describe(a, d, h, x));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void xAtArcLengthInvertsArcLength() {
+        for (double a : HANG_AMOUNTS) {
+            for (double d : LENGTHS) {
+                for (double h : HEIGHTS) {
+                    CatenaryCurve curve = new CatenaryCurve(d, h, a);
+                    for (int i = 0; i <= STEPS; i++) {
+                        double x = d * i / STEPS;
+                        assertEquals(x, curve.xAtArcLength(curve.arcLength(x)), 1e-7 * Math.max(1, d), () -> describe(a, d, h, x));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The arc length from 0 to {@code x} with Simpson's rule, using the slope of the original formula.
+     */
+    private static double integrateArcLength(double x, double d, double h, double a) {
+        int n = 1024;
+        double step = x / n, sum = 0;
+        for (int i = 0; i <= n; i++) {
+            double k = drip2prime(step * i, d, h, a);
+            double weight = i == 0 || i == n ? 1 : i % 2 == 1 ? 4 : 2;
+            sum += weight * Math.sqrt(1 + k * k);
+        }
+        return sum * step / 3;
+    }
+
+    private static String describe(double a, double d, double h, double x) {
+        return "a=" + a + " d=" + d + " h=" + h + " x=" + x;
+    }
+
+    /**
+     * The original {@code Helper.drip2}, with the hang amount as parameter instead of read from the config.
+     */
+    private static double drip2(double x, double d, double h, double a) {
+        double p1 = a * asinh((h / (2D * a)) * (1D / Math.sinh(d / (2D * a))));
+        double p2 = -a * Math.cosh((2D * p1 - d) / (2D * a));
+        return p2 + a * Math.cosh((((2D * x) + (2D * p1)) - d) / (2D * a));
+    }
+
+    /**
+     * The original {@code Helper.drip2prime}, with the hang amount as parameter instead of read from the config.
+     */
+    private static double drip2prime(double x, double d, double h, double a) {
+        double p1 = a * asinh((h / (2D * a)) * (1D / Math.sinh(d / (2D * a))));
+        return Math.sinh((2 * x + 2 * p1 - d) / (2 * a));
+    }
+
+    private static double asinh(double x) {
+        return Math.log(x + Math.sqrt(x * x + 1.0));
+    }
+}